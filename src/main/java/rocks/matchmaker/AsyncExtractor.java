@@ -0,0 +1,15 @@
+package rocks.matchmaker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * An {@link Extractor} whose result becomes available later, e.g. when it depends on a lookup
+ * in an external service. Use {@link BatchLoader} to have concurrent lookups coalesced into batches.
+ *
+ * @see Matcher#matchingAsync(AsyncExtractor)
+ * @see Matcher#matchAsync(Object)
+ */
+public interface AsyncExtractor<F, T> extends BiFunction<F, Captures, CompletableFuture<Option<T>>> {
+
+}
@@ -0,0 +1,40 @@
+package rocks.matchmaker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The asynchronous counterpart of a Matcher's match function, used by {@link Matcher#matchAsync(Object)}.
+ * It completes once all the {@link AsyncExtractor}s involved have completed.
+ * <p>
+ * The steps of a single evaluation still run one after another (possibly on different threads),
+ * so the MatchContext is never accessed concurrently.
+ */
+@FunctionalInterface
+interface AsyncMatchFunction<F, T> {
+
+    CompletableFuture<Match<T>> apply(F value, Captures captures, MatchContext context);
+
+    static <F, T> AsyncMatchFunction<F, T> of(MatchFunction<? super F, T> matchFunction) {
+        return (value, captures, context) -> CompletableFuture.completedFuture(matchFunction.apply(value, captures, context));
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenCompose(Function)}, but applies the function right away
+     * when the future is already complete, which is the case for all the synchronous steps.
+     * This saves the dependent future and its completion; the synchronous steps still allocate
+     * their own completed futures (see {@link #of(MatchFunction)}).
+     */
+    static <T, R> CompletableFuture<R> compose(CompletableFuture<T> future, Function<? super T, CompletableFuture<R>> function) {
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            return function.apply(future.join());
+        }
+        return future.thenCompose(function);
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable failure) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+}
@@ -0,0 +1,26 @@
+package rocks.matchmaker;
+
+import com.google.common.collect.Iterators;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * The backtracking counterpart of a Matcher's match function: instead of
+ * the first match it lazily enumerates all alternative matches.
+ * Each alternative carries its own Captures, so abandoning an alternative
+ * rolls back whatever it has bound.
+ */
+@FunctionalInterface
+interface BacktrackingFunction<F, T> {
+
+    Iterator<Match<T>> apply(F value, Captures captures, MatchContext context);
+
+    static <F, T> BacktrackingFunction<F, T> of(MatchFunction<? super F, T> matchFunction) {
+        return (value, captures, context) -> alternatives(matchFunction.apply(value, captures, context));
+    }
+
+    static <T> Iterator<Match<T>> alternatives(Match<T> match) {
+        return match.isPresent() ? Iterators.singletonIterator(match) : Collections.emptyIterator();
+    }
+}
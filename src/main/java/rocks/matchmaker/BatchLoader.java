@@ -0,0 +1,145 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Coalesces individual lookups, e.g. from many concurrent {@link Matcher#matchAsync(Object) asynchronous evaluations},
+ * into batched calls of a batch function (think: a single request to a metadata service for many keys).
+ * <p>
+ * The first lookup after a dispatch schedules the next dispatch on the loader's executor.
+ * All the lookups made until the dispatch runs, up to the maximum batch size, are loaded in a single batch.
+ * Lookups of a key already waiting for the next batch share its result.
+ * {@link #dispatch()} loads the waiting lookups right away.
+ * <p>
+ * The executor only runs the dispatches, so it can be anything from a thread pool to
+ * {@code Executors.newVirtualThreadPerTaskExecutor()} on Java 21+.
+ * The matching continues on the thread completing the batch function's result.
+ */
+public class BatchLoader<K, V> {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    private final Function<? super List<K>, ? extends CompletionStage<? extends Map<K, V>>> batchFunction;
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    private final Object lock = new Object();
+    private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+
+    private BatchLoader(
+            Function<? super List<K>, ? extends CompletionStage<? extends Map<K, V>>> batchFunction,
+            Executor executor,
+            int maxBatchSize
+    ) {
+        Util.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.batchFunction = Util.checkNotNull(batchFunction);
+        this.executor = Util.checkNotNull(executor);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param batchFunction loads the values of the given keys. Keys missing from the resulting map have null values.
+     */
+    public static <K, V> BatchLoader<K, V> of(Function<? super List<K>, ? extends CompletionStage<? extends Map<K, V>>> batchFunction) {
+        return of(batchFunction, ForkJoinPool.commonPool(), DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public static <K, V> BatchLoader<K, V> of(
+            Function<? super List<K>, ? extends CompletionStage<? extends Map<K, V>>> batchFunction,
+            Executor executor,
+            int maxBatchSize
+    ) {
+        return new BatchLoader<>(batchFunction, executor, maxBatchSize);
+    }
+
+    public CompletableFuture<V> load(K key) {
+        loads.increment();
+        CompletableFuture<V> value;
+        Map<K, CompletableFuture<V>> fullBatch = null;
+        boolean firstPending;
+        synchronized (lock) {
+            value = pending.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = new CompletableFuture<>();
+            firstPending = pending.isEmpty();
+            pending.put(key, value);
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = pending;
+                pending = new LinkedHashMap<>();
+            }
+        }
+        if (fullBatch != null) {
+            load(fullBatch);
+        } else if (firstPending) {
+            executor.execute(this::dispatch);
+        }
+        return value;
+    }
+
+    /**
+     * @param key computes the key to look the value up by
+     * @return an extractor of the values looked up by this loader. Null values don't match.
+     */
+    public <F> AsyncExtractor<F, V> extractor(Function<? super F, ? extends K> key) {
+        return (value, captures) -> load(key.apply(value)).thenApply(result -> result == null ? Option.empty() : Option.of(result));
+    }
+
+    /**
+     * Loads the lookups waiting for the next batch right away.
+     */
+    public void dispatch() {
+        Map<K, CompletableFuture<V>> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        load(batch);
+    }
+
+    private void load(Map<K, CompletableFuture<V>> batch) {
+        batches.increment();
+        try {
+            batchFunction.apply(new ArrayList<>(batch.keySet())).whenComplete((values, failure) -> batch.forEach((key, value) -> {
+                if (failure != null) {
+                    value.completeExceptionally(failure);
+                } else {
+                    value.complete(values.get(key));
+                }
+            }));
+        } catch (RuntimeException e) {
+            batch.values().forEach(value -> value.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * @return number of calls of the batch function so far
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of lookups so far
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+}
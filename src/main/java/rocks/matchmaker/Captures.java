@@ -27,6 +27,8 @@ public class Captures {
     public Captures addAll(Captures other) {
         if (this == NIL) {
             return other;
+        } else if (other == NIL) {
+            return this;
         } else {
             return new Captures(capture, value, tail.addAll(other));
         }
@@ -0,0 +1,264 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Indexed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * Narrows down the cases of a pattern match to the candidates for a matched object:
+ * the cases with a scope type the object is an instance of, in the order of their indices.
+ * <p>
+ * The candidates are computed once per class of matched objects, acting as a type switch over the cases.
+ * When the pattern match's type is a sealed hierarchy (see {@link SealedHierarchies}), the candidates
+ * of all its classes are computed up front and the cases can be checked to cover all of them.
+ * <p>
+ * A dispatch is never modified once built. {@link #with(Indexed)} and {@link #without(int)} derive
+ * an updated dispatch, copying only the lists of cases affected by the change: the cases of the
+ * changed scope types and the candidates of the classes matched so far those scope types apply to.
+ * <p>
+ * The candidates are looked up through a ClassValue, and the classes matched so far are only weakly referenced,
+ * so a dispatch doesn't keep the classes of matched objects (and their class loaders) from being unloaded.
+ * <p>
+ * Strings are further narrowed down by their literal cases, see {@link StringCases}.
+ */
+class CaseDispatch<R> {
+
+    private final List<Indexed<Matcher<R>>> cases;
+    private final Map<Class<?>, List<Indexed<Matcher<R>>>> casesByScopeType;
+    private final Set<Class<?>> leafClasses;
+    //the candidates of the classes matched so far, carried over to updated dispatches; guarded by itself
+    private final WeakHashMap<Class<?>, List<Indexed<Matcher<R>>>> knownCandidates;
+    private final ClassValue<List<Indexed<Matcher<R>>>> candidatesByClass = new ClassValue<List<Indexed<Matcher<R>>>>() {
+        @Override
+        protected List<Indexed<Matcher<R>>> computeValue(Class<?> type) {
+            synchronized (knownCandidates) {
+                List<Indexed<Matcher<R>>> candidates = knownCandidates.get(type);
+                if (candidates == null) {
+                    candidates = computeCandidates(type);
+                    knownCandidates.put(type, candidates);
+                }
+                return candidates;
+            }
+        }
+    };
+    //built on the first string matched, empty if there are too few literal cases, see StringCases
+    private volatile Option<StringCases<R>> stringCases;
+
+    CaseDispatch(List<Matcher<R>> cases, Class<?> matchedType) {
+        this(indexed(cases), SealedHierarchies.leafClasses(matchedType));
+    }
+
+    private CaseDispatch(List<Indexed<Matcher<R>>> cases, Set<Class<?>> leafClasses) {
+        Map<Class<?>, List<Indexed<Matcher<R>>>> casesByScopeType = new HashMap<>();
+        for (Indexed<Matcher<R>> indexedCase : cases) {
+            //the cases of each scope type are in order, as the cases are
+            casesByScopeType.computeIfAbsent(indexedCase.value().getScopeType(), __ -> new ArrayList<>()).add(indexedCase);
+        }
+        casesByScopeType.replaceAll((scopeType, scopeTypeCases) -> Collections.unmodifiableList(scopeTypeCases));
+        this.cases = cases;
+        this.casesByScopeType = casesByScopeType;
+        this.leafClasses = leafClasses;
+        this.knownCandidates = new WeakHashMap<>();
+        if (leafClasses != null) {
+            leafClasses.forEach(this::candidatesOf);
+        }
+    }
+
+    private static <R> List<Indexed<Matcher<R>>> indexed(List<Matcher<R>> cases) {
+        List<Indexed<Matcher<R>>> indexedCases = new ArrayList<>(cases.size());
+        for (Matcher<R> matcher : cases) {
+            indexedCases.add(Indexed.at(indexedCases.size(), matcher));
+        }
+        return Collections.unmodifiableList(indexedCases);
+    }
+
+    private CaseDispatch(
+            List<Indexed<Matcher<R>>> cases,
+            Map<Class<?>, List<Indexed<Matcher<R>>>> casesByScopeType,
+            Set<Class<?>> leafClasses,
+            WeakHashMap<Class<?>, List<Indexed<Matcher<R>>>> knownCandidates
+    ) {
+        this.cases = cases;
+        this.casesByScopeType = casesByScopeType;
+        this.leafClasses = leafClasses;
+        this.knownCandidates = knownCandidates;
+    }
+
+    int caseCount() {
+        return cases.size();
+    }
+
+    /**
+     * @return the highest case index plus one, i.e. the size of a table indexed by the cases' indices
+     */
+    int indexBound() {
+        return cases.isEmpty() ? 0 : cases.get(cases.size() - 1).index() + 1;
+    }
+
+    boolean hasCase(int index) {
+        return position(cases, index) >= 0;
+    }
+
+    /**
+     * @return the cases that may match the object (all of them for null), in order
+     */
+    List<Indexed<Matcher<R>>> candidates(Object object) {
+        if (object instanceof String) {
+            Option<StringCases<R>> stringCases = stringCases();
+            if (stringCases.isPresent()) {
+                return stringCases.value().candidates((String) object);
+            }
+        }
+        return object == null ? cases : candidatesOf(object.getClass());
+    }
+
+    //racy, but all the threads computing it compute the same
+    private Option<StringCases<R>> stringCases() {
+        Option<StringCases<R>> stringCases = this.stringCases;
+        if (stringCases == null) {
+            StringCases<R> literalCases = StringCases.of(candidatesOf(String.class));
+            stringCases = literalCases == null ? Option.empty() : Option.of(literalCases);
+            this.stringCases = stringCases;
+        }
+        return stringCases;
+    }
+
+    private List<Indexed<Matcher<R>>> candidatesOf(Class<?> type) {
+        return candidatesByClass.get(type);
+    }
+
+    private List<Indexed<Matcher<R>>> computeCandidates(Class<?> type) {
+        TreeSet<Indexed<Matcher<R>>> candidates = new TreeSet<>();
+        for (Class<?> supertype : ScopeTypes.supertypes(type)) {
+            candidates.addAll(casesByScopeType.getOrDefault(supertype, Collections.emptyList()));
+        }
+        return Collections.unmodifiableList(new ArrayList<>(candidates));
+    }
+
+    /**
+     * @return a dispatch with the given case added, or replacing the case with the same index
+     */
+    CaseDispatch<R> with(Indexed<Matcher<R>> newCase) {
+        return update(newCase.index(), newCase);
+    }
+
+    /**
+     * @return a dispatch without the case with the given index
+     */
+    CaseDispatch<R> without(int index) {
+        return update(index, null);
+    }
+
+    /**
+     * @return a dispatch without the cases with the given indices, built from scratch
+     */
+    CaseDispatch<R> withoutAll(Set<Integer> indices) {
+        List<Indexed<Matcher<R>>> remainingCases = new ArrayList<>(cases.size());
+        for (Indexed<Matcher<R>> indexedCase : cases) {
+            if (!indices.contains(indexedCase.index())) {
+                remainingCases.add(indexedCase);
+            }
+        }
+        return new CaseDispatch<>(Collections.unmodifiableList(remainingCases), leafClasses);
+    }
+
+    private CaseDispatch<R> update(int index, Indexed<Matcher<R>> newCase) {
+        int position = position(cases, index);
+        Indexed<Matcher<R>> oldCase = position >= 0 ? cases.get(position) : null;
+        if (oldCase == null && newCase == null) {
+            return this;
+        }
+        Class<?> oldScopeType = oldCase == null ? null : oldCase.value().getScopeType();
+        Class<?> newScopeType = newCase == null ? null : newCase.value().getScopeType();
+
+        Map<Class<?>, List<Indexed<Matcher<R>>>> newCasesByScopeType = new HashMap<>(casesByScopeType);
+        if (oldScopeType != null && oldScopeType != newScopeType) {
+            List<Indexed<Matcher<R>>> scopeTypeCases = updated(casesByScopeType.get(oldScopeType), index, null);
+            if (scopeTypeCases.isEmpty()) {
+                newCasesByScopeType.remove(oldScopeType);
+            } else {
+                newCasesByScopeType.put(oldScopeType, scopeTypeCases);
+            }
+        }
+        if (newScopeType != null) {
+            newCasesByScopeType.put(newScopeType, updated(casesByScopeType.getOrDefault(newScopeType, Collections.emptyList()), index, newCase));
+        }
+
+        Map<Class<?>, List<Indexed<Matcher<R>>>> oldKnownCandidates;
+        synchronized (knownCandidates) {
+            oldKnownCandidates = new HashMap<>(knownCandidates);
+        }
+        WeakHashMap<Class<?>, List<Indexed<Matcher<R>>>> newKnownCandidates = new WeakHashMap<>(oldKnownCandidates.size());
+        oldKnownCandidates.forEach((type, candidates) -> {
+            List<Class<?>> supertypes = ScopeTypes.supertypes(type);
+            boolean hadCase = oldScopeType != null && supertypes.contains(oldScopeType);
+            boolean hasCase = newScopeType != null && supertypes.contains(newScopeType);
+            newKnownCandidates.put(type, hadCase || hasCase ? updated(candidates, index, hasCase ? newCase : null) : candidates);
+        });
+
+        return new CaseDispatch<>(updated(cases, index, newCase), newCasesByScopeType, leafClasses, newKnownCandidates);
+    }
+
+    /**
+     * @return a copy of the ordered cases with the case of the given index set to the new case,
+     * or removed if the new case is null
+     */
+    private static <R> List<Indexed<Matcher<R>>> updated(List<Indexed<Matcher<R>>> cases, int index, Indexed<Matcher<R>> newCase) {
+        List<Indexed<Matcher<R>>> updatedCases = new ArrayList<>(cases.size() + 1);
+        updatedCases.addAll(cases);
+        int position = position(cases, index);
+        if (position >= 0 && newCase != null) {
+            updatedCases.set(position, newCase);
+        } else if (position >= 0) {
+            updatedCases.remove(position);
+        } else if (newCase != null) {
+            updatedCases.add(-position - 1, newCase);
+        }
+        return Collections.unmodifiableList(updatedCases);
+    }
+
+    /**
+     * @return the position of the case with the given index, or (-(insertion point) - 1), as in {@link Collections#binarySearch(List, Object)}
+     */
+    private static <R> int position(List<Indexed<Matcher<R>>> cases, int index) {
+        int low = 0;
+        int high = cases.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleIndex = cases.get(middle).index();
+            if (middleIndex < index) {
+                low = middle + 1;
+            } else if (middleIndex > index) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the classes of the sealed hierarchy no case applies to
+     * @throws IllegalStateException if the matched type isn't a sealed hierarchy
+     */
+    Set<Class<?>> uncoveredClasses() {
+        if (leafClasses == null) {
+            throw new IllegalStateException("Case coverage can only be checked for sealed hierarchies");
+        }
+        Set<Class<?>> uncoveredClasses = new LinkedHashSet<>();
+        for (Class<?> leafClass : leafClasses) {
+            if (candidatesOf(leafClass).isEmpty()) {
+                uncoveredClasses.add(leafClass);
+            }
+        }
+        return uncoveredClasses;
+    }
+}
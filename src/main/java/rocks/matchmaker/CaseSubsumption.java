@@ -0,0 +1,77 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Indexed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the cases of a pattern match that can never be the first matching case, because an earlier case matches whenever they do.
+ * A case is subsumed by an earlier one if:
+ * <ul>
+ * <li>the earlier case's pattern is a prefix of its pattern (in particular, an equal pattern, see {@link Matcher#equals(Object)}),
+ * i.e. it only adds conditions to the earlier case's ones, or</li>
+ * <li>the earlier case's pattern is unconditional (a type test, possibly captured) and its scope type is a supertype
+ * of the case's scope type (and it matches nulls if the case does).</li>
+ * </ul>
+ * As the patterns are compared structurally, their conditions are assumed to give the same results for the same objects.
+ */
+class CaseSubsumption {
+
+    private CaseSubsumption() {
+    }
+
+    static <R> List<CompiledPatternMatch.UnreachableCase> unreachableCases(List<Indexed<Matcher<R>>> cases) {
+        List<CompiledPatternMatch.UnreachableCase> unreachableCases = new ArrayList<>();
+        //earlier patterns (and their prefixes), mapped to the index of the first case having them
+        Map<Matcher<?>, Integer> patterns = new HashMap<>();
+        //scope types of earlier unconditional patterns, mapped to the first such case
+        Map<Class<?>, Indexed<Matcher<?>>> unconditionalPatterns = new HashMap<>();
+        for (Indexed<Matcher<R>> indexedCase : cases) {
+            Matcher<?> pattern = PatternMatch.pattern(indexedCase.value());
+            Integer subsumingCase = null;
+            for (Matcher<?> prefix = pattern; prefix != null && subsumingCase == null; prefix = prefix.getPrevious()) {
+                subsumingCase = patterns.get(prefix);
+            }
+            Matcher<?> root = root(pattern);
+            boolean matchesNull = root.getStepLabel().equals("nullable");
+            if (subsumingCase == null && (matchesNull || root.getStepLabel().equals("typeOf"))) {
+                for (Class<?> supertype : ScopeTypes.supertypes(root.getScopeType())) {
+                    Indexed<Matcher<?>> unconditional = unconditionalPatterns.get(supertype);
+                    if (unconditional != null && (!matchesNull || root(unconditional.value()).getStepLabel().equals("nullable"))) {
+                        subsumingCase = unconditional.index();
+                        break;
+                    }
+                }
+            }
+            if (subsumingCase != null) {
+                unreachableCases.add(new CompiledPatternMatch.UnreachableCase(indexedCase.index(), subsumingCase));
+                continue;
+            }
+            patterns.putIfAbsent(pattern, indexedCase.index());
+            if (isUnconditional(pattern)) {
+                unconditionalPatterns.putIfAbsent(root.getScopeType(), Indexed.at(indexedCase.index(), pattern));
+            }
+        }
+        return unreachableCases;
+    }
+
+    private static Matcher<?> root(Matcher<?> matcher) {
+        while (matcher.getPrevious() != null) {
+            matcher = matcher.getPrevious();
+        }
+        return matcher;
+    }
+
+    private static boolean isUnconditional(Matcher<?> pattern) {
+        for (Matcher<?> matcher = pattern; matcher.getPrevious() != null; matcher = matcher.getPrevious()) {
+            if (!matcher.getStepLabel().equals("capturedAs")) {
+                return false;
+            }
+        }
+        String rootLabel = root(pattern).getStepLabel();
+        return rootLabel.equals("typeOf") || rootLabel.equals("nullable");
+    }
+}
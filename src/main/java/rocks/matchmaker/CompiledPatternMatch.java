@@ -0,0 +1,200 @@
+package rocks.matchmaker;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toSet;
+import static rocks.matchmaker.Matcher.nullable;
+
+/**
+ * An immutable snapshot of a {@link PatternMatch}'s cases (see {@link PatternMatch#compile()}).
+ * <p>
+ * The case dispatch table and the resulting matchers are built once, when compiling.
+ * A compiled pattern match can be shared by any number of threads: it has no mutable state
+ * other than its dispatch table's thread-safe per-class cache (and the metrics, if any),
+ * so matching takes no locks.
+ * <p>
+ * Cases that can never be the first matching one, as an earlier case matches whenever they do
+ * (e.g. a {@code join()} case following a {@code plan()} case), are dropped from {@link #returnFirst()}'s dispatch table.
+ * They're reported by {@link #getUnreachableCases()} and, on Java 11+, as Flight Recorder events.
+ * {@link #returningAll()} still evaluates all the cases.
+ */
+public final class CompiledPatternMatch<T, R> {
+
+    private final CaseDispatch<R> dispatch;
+    //by case index, see PatternMatch.Case#withCostAtLeast()
+    private final double[] costLowerBounds;
+    private final MatchMetrics metrics;
+    private final List<UnreachableCase> unreachableCases;
+    //the functions are kept for live rule sets, which delegate to their current snapshot's functions
+    final MatchFunction<Object, R> firstFunction;
+    final AsyncMatchFunction<Object, R> firstAsyncFunction;
+    final MatchFunction<Object, List<R>> allFunction;
+    final AsyncMatchFunction<Object, List<R>> allAsyncFunction;
+    private final Matcher<R> firstMatcher;
+    private final Matcher<List<R>> allMatcher;
+
+    CompiledPatternMatch(
+            Class<T> matcherResultType,
+            List<Matcher<R>> cases,
+            double[] costLowerBounds,
+            MatchMetrics metrics,
+            boolean exhaustive
+    ) {
+        this(new CaseDispatch<>(ImmutableList.copyOf(cases), matcherResultType), costLowerBounds.clone(), metrics, exhaustive, true);
+    }
+
+    /**
+     * @param costLowerBounds the cases' cost lower bounds by case index, cases past its end having none
+     * @param dropUnreachableCases whether to look for unreachable cases and drop them from {@link #returnFirst()}'s dispatch table
+     */
+    CompiledPatternMatch(
+            CaseDispatch<R> dispatch,
+            double[] costLowerBounds,
+            MatchMetrics metrics,
+            boolean exhaustive,
+            boolean dropUnreachableCases
+    ) {
+        if (exhaustive) {
+            Set<Class<?>> uncoveredClasses = dispatch.uncoveredClasses();
+            if (!uncoveredClasses.isEmpty()) {
+                throw new IllegalStateException("No case applies to " + uncoveredClasses.stream()
+                        .map(Class::getName)
+                        .collect(joining(", ")));
+            }
+        }
+        this.dispatch = dispatch;
+        this.costLowerBounds = costLowerBounds;
+        this.metrics = metrics;
+        this.unreachableCases = dropUnreachableCases ?
+                ImmutableList.copyOf(CaseSubsumption.unreachableCases(dispatch.candidates(null))) :
+                ImmutableList.of();
+        CaseDispatch<R> firstDispatch = dispatch;
+        if (!unreachableCases.isEmpty()) {
+            unreachableCases.forEach(unreachableCase -> MatchEvents.unreachableCase(unreachableCase.getCaseIndex(), unreachableCase.getSubsumingCaseIndex()));
+            firstDispatch = dispatch.withoutAll(unreachableCases.stream()
+                    .map(UnreachableCase::getCaseIndex)
+                    .collect(toSet()));
+        }
+        this.firstFunction = MultiMatcherMatchFunctions.returnFirst(firstDispatch, metrics);
+        this.firstAsyncFunction = MultiMatcherMatchFunctions.returnFirstAsync(firstDispatch);
+        this.allFunction = MultiMatcherMatchFunctions.returnAll(dispatch, metrics);
+        this.allAsyncFunction = MultiMatcherMatchFunctions.returnAllAsync(dispatch);
+        this.firstMatcher = nullable(Object.class).flatMap("returnFirst", firstFunction, firstAsyncFunction);
+        this.allMatcher = nullable(Object.class).flatMap("returningAll", allFunction, allAsyncFunction);
+    }
+
+    /**
+     * @return the number of cases
+     */
+    public int size() {
+        return dispatch.caseCount();
+    }
+
+    /**
+     * @return a matcher returning the result of the first matching case. The same matcher is returned on every call.
+     */
+    public Matcher<R> returnFirst() {
+        return firstMatcher;
+    }
+
+    /**
+     * @return a matcher returning the results of all matching cases. The same matcher is returned on every call.
+     */
+    public Matcher<List<R>> returningAll() {
+        return allMatcher;
+    }
+
+    /**
+     * @return a matcher returning the result of the matching case with the lowest cost, according to the given function.
+     * Of matching cases with equal costs, the one with the lower cost lower bound wins, and then the earlier one.
+     * <p>
+     * Cases are evaluated in the order of their cost lower bounds (see {@link PatternMatch.Case#withCostAtLeast(double)}),
+     * cases without one first. Once a case matches, the cases whose bound isn't below its cost are skipped,
+     * so that declaring bounds for cases with expensive patterns spares evaluating them whenever a cheaper case matches.
+     * All the cases are candidates, including the ones unreachable by {@link #returnFirst()}.
+     * @throws IllegalStateException from the matcher, when a case's result costs less than its declared lower bound
+     */
+    public Matcher<R> returnBest(ToDoubleFunction<? super R> costFunction) {
+        return nullable(Object.class).flatMap(
+                "returnBest",
+                MultiMatcherMatchFunctions.returnBest(dispatch, costLowerBounds, costFunction, metrics),
+                MultiMatcherMatchFunctions.returnBestAsync(dispatch, costLowerBounds, costFunction));
+    }
+
+    /**
+     * Groups the elements by the result of their first matching case, in a parallel stream of the elements.
+     * Each worker groups its own elements, the groups of the workers are concatenated as they finish,
+     * so that the groups are in the order of their first elements and each group is in the elements' order.
+     * Elements matching no case are left out.
+     */
+    public <E extends T> Map<R, List<E>> classify(Spliterator<E> elements) {
+        Matcher<R> matcher = returnFirst();
+        return StreamSupport.stream(elements, true).collect(Collector.<E, Map<R, List<E>>>of(
+                LinkedHashMap::new,
+                (groups, element) -> {
+                    Match<R> match = matcher.match(element);
+                    if (match.isPresent()) {
+                        groups.computeIfAbsent(match.value(), __ -> new ArrayList<>()).add(element);
+                    }
+                },
+                (left, right) -> {
+                    right.forEach((result, group) -> left.computeIfAbsent(result, __ -> new ArrayList<>()).addAll(group));
+                    return left;
+                },
+                Collector.Characteristics.IDENTITY_FINISH));
+    }
+
+    /**
+     * @return the cases that are never evaluated by {@link #returnFirst()}, in order
+     */
+    public List<UnreachableCase> getUnreachableCases() {
+        return unreachableCases;
+    }
+
+    //not copied: callers copy before changing
+    double[] costLowerBounds() {
+        return costLowerBounds;
+    }
+
+    CaseDispatch<R> dispatch() {
+        return dispatch;
+    }
+
+    public static final class UnreachableCase {
+
+        private final int caseIndex;
+        private final int subsumingCaseIndex;
+
+        UnreachableCase(int caseIndex, int subsumingCaseIndex) {
+            this.caseIndex = caseIndex;
+            this.subsumingCaseIndex = subsumingCaseIndex;
+        }
+
+        public int getCaseIndex() {
+            return caseIndex;
+        }
+
+        /**
+         * @return the index of the earlier case matching whenever the unreachable one does
+         */
+        public int getSubsumingCaseIndex() {
+            return subsumingCaseIndex;
+        }
+
+        @Override
+        public String toString() {
+            return "case[" + caseIndex + "] is unreachable, as case[" + subsumingCaseIndex + "] matches whenever it does";
+        }
+    }
+}
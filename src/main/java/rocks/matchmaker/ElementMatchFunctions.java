@@ -0,0 +1,122 @@
+package rocks.matchmaker;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+//The single-match functions below iterate by index on purpose: no Iterator, Stream or Option
+//is allocated while looking for a matching element.
+//The *Alternatives functions are their backtracking counterparts, the *Async ones their asynchronous counterparts.
+class ElementMatchFunctions {
+
+    static <R> MatchFunction<Object, R> anyElement(Matcher<R> elementMatcher) {
+        return (object, captures, context) -> {
+            List<?> elements = (List<?>) object;
+            for (int i = 0, size = elements.size(); i < size; i++) {
+                Match<R> match = elementMatcher.match(elements.get(i), captures, context);
+                if (match.isPresent()) {
+                    return match;
+                }
+            }
+            return Match.empty();
+        };
+    }
+
+    static <R> MatchFunction<Object, R> everyElement(Matcher<R> elementMatcher) {
+        return (object, captures, context) -> {
+            List<?> elements = (List<?>) object;
+            R lastValue = null;
+            Captures allCaptures = captures;
+            for (int i = 0, size = elements.size(); i < size; i++) {
+                Match<R> match = elementMatcher.match(elements.get(i), allCaptures, context);
+                if (match.isEmpty()) {
+                    return match;
+                }
+                lastValue = match.value();
+                allCaptures = match.captures();
+            }
+            return Match.of(lastValue, allCaptures);
+        };
+    }
+
+    static <R> AsyncMatchFunction<Object, R> anyElementAsync(Matcher<R> elementMatcher) {
+        return (object, captures, context) -> anyElementAsync(elementMatcher, (List<?>) object, 0, captures, context);
+    }
+
+    private static <R> CompletableFuture<Match<R>> anyElementAsync(Matcher<R> elementMatcher, List<?> elements, int index, Captures captures, MatchContext context) {
+        if (index == elements.size()) {
+            return completedFuture(Match.empty());
+        }
+        return AsyncMatchFunction.compose(elementMatcher.matchAsync(elements.get(index), captures, context), match -> match.isPresent() ?
+                completedFuture(match) :
+                anyElementAsync(elementMatcher, elements, index + 1, captures, context));
+    }
+
+    static <R> AsyncMatchFunction<Object, R> everyElementAsync(Matcher<R> elementMatcher) {
+        return (object, captures, context) -> everyElementAsync(elementMatcher, (List<?>) object, 0, null, captures, context);
+    }
+
+    private static <R> CompletableFuture<Match<R>> everyElementAsync(
+            Matcher<R> elementMatcher,
+            List<?> elements,
+            int index,
+            R lastValue,
+            Captures captures,
+            MatchContext context
+    ) {
+        if (index == elements.size()) {
+            return completedFuture(Match.of(lastValue, captures));
+        }
+        return AsyncMatchFunction.compose(elementMatcher.matchAsync(elements.get(index), captures, context), match -> match.isPresent() ?
+                everyElementAsync(elementMatcher, elements, index + 1, match.value(), match.captures(), context) :
+                completedFuture(match));
+    }
+
+    static <R> BacktrackingFunction<Object, R> anyElementAlternatives(Matcher<R> elementMatcher) {
+        return (object, captures, context) -> {
+            List<?> elements = (List<?>) object;
+            Iterator<Iterator<Match<R>>> alternativesPerElement = new AbstractIterator<Iterator<Match<R>>>() {
+
+                private int index;
+
+                @Override
+                protected Iterator<Match<R>> computeNext() {
+                    if (index == elements.size()) {
+                        return endOfData();
+                    }
+                    return elementAlternatives(elementMatcher, elements.get(index++), captures, context);
+                }
+            };
+            return Iterators.concat(alternativesPerElement);
+        };
+    }
+
+    static <R> BacktrackingFunction<Object, R> everyElementAlternatives(Matcher<R> elementMatcher) {
+        return (object, captures, context) -> everyElementAlternatives(elementMatcher, (List<?>) object, 0, null, captures, context);
+    }
+
+    private static <R> Iterator<Match<R>> everyElementAlternatives(
+            Matcher<R> elementMatcher,
+            List<?> elements,
+            int index,
+            R lastValue,
+            Captures captures,
+            MatchContext context
+    ) {
+        if (index == elements.size()) {
+            return Iterators.singletonIterator(Match.of(lastValue, captures));
+        }
+        Iterator<Match<R>> elementAlternatives = elementAlternatives(elementMatcher, elements.get(index), captures, context);
+        return Iterators.concat(Iterators.transform(elementAlternatives, elementMatch -> everyElementAlternatives(
+                elementMatcher, elements, index + 1, elementMatch.value(), elementMatch.captures(), context)));
+    }
+
+    private static <R> Iterator<Match<R>> elementAlternatives(Matcher<R> elementMatcher, Object element, Captures captures, MatchContext context) {
+        return context.memoized(elementMatcher, element, captures, () -> elementMatcher.allMatches(element, captures, context));
+    }
+}
@@ -0,0 +1,57 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.Arrays;
+
+/**
+ * A matcher compiled to evaluate over {@link FlatTree}s (see {@link FlatTreeSchema#compile(Matcher)}).
+ * It only tells whether a node matches: no values are extracted and no captures are bound.
+ */
+public final class FlatMatcher {
+
+    private final FlatTreeSchema<?> schema;
+    private final NodeTest test;
+
+    FlatMatcher(FlatTreeSchema<?> schema, NodeTest test) {
+        this.schema = schema;
+        this.test = test;
+    }
+
+    public boolean matches(FlatTree tree, int node) {
+        checkSchema(tree);
+        return test.test(tree, node);
+    }
+
+    /**
+     * @return the matching nodes, in pre-order
+     */
+    public int[] findAll(FlatTree tree) {
+        checkSchema(tree);
+        int[] matches = new int[16];
+        int matchCount = 0;
+        for (int node = 0, nodeCount = tree.getNodeCount(); node < nodeCount; node++) {
+            if (test.test(tree, node)) {
+                if (matchCount == matches.length) {
+                    matches = Arrays.copyOf(matches, matchCount * 2);
+                }
+                matches[matchCount++] = node;
+            }
+        }
+        return Arrays.copyOf(matches, matchCount);
+    }
+
+    private void checkSchema(FlatTree tree) {
+        Util.checkArgument(tree.getSchema() == schema, "The tree wasn't encoded by this matcher's schema");
+    }
+
+    @FunctionalInterface
+    interface NodeTest {
+
+        boolean test(FlatTree tree, int node);
+
+        default NodeTest and(NodeTest other) {
+            return (tree, node) -> test(tree, node) && other.test(tree, node);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package rocks.matchmaker;
+
+/**
+ * A tree of objects encoded in a few int arrays (see {@link FlatTreeSchema#encode(Object)}):
+ * the kind of each node, the offsets of each node's children and a column per encoded property.
+ * Nodes are identified by their position in pre-order, starting with the root at 0.
+ * <p>
+ * Matchers compiled by the tree's schema evaluate over the arrays only, without
+ * following references between (or creating any) objects.
+ */
+public final class FlatTree {
+
+    private final FlatTreeSchema<?> schema;
+    private final int[] kinds;
+    //children of node i are children[childStart[i]] .. children[childStart[i + 1] - 1]
+    private final int[] childStart;
+    private final int[] children;
+    private final int[][] columns;
+
+    FlatTree(FlatTreeSchema<?> schema, int[] kinds, int[] childStart, int[] children, int[][] columns) {
+        this.schema = schema;
+        this.kinds = kinds;
+        this.childStart = childStart;
+        this.children = children;
+        this.columns = columns;
+    }
+
+    public int getNodeCount() {
+        return kinds.length;
+    }
+
+    public Class<?> getNodeClass(int node) {
+        return schema.getKind(kinds[node]);
+    }
+
+    public int getChildCount(int node) {
+        return childStart[node + 1] - childStart[node];
+    }
+
+    public int getChild(int node, int index) {
+        if (index < 0 || index >= getChildCount(node)) {
+            throw new IndexOutOfBoundsException("Node " + node + " has no child " + index);
+        }
+        return children[childStart[node] + index];
+    }
+
+    FlatTreeSchema<?> getSchema() {
+        return schema;
+    }
+
+    int getKind(int node) {
+        return kinds[node];
+    }
+
+    int getColumnValue(int column, int node) {
+        return columns[column][node];
+    }
+}
@@ -0,0 +1,398 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Describes how to encode trees of objects as {@link FlatTree}s and compiles matchers to be evaluated over them.
+ * <p>
+ * A schema lists the node kinds (classes), how to get the children of a node,
+ * and the properties to encode: child properties, whose values are nodes of the tree
+ * (e.g. a join's probe side), and attribute properties, whose values are encoded
+ * as int ids of a schema-wide dictionary (e.g. table names).
+ * <p>
+ * Matchers built of {@code typeOf}, {@code nullable}, {@code equalTo}, {@code capturedAs}, sub-matchers
+ * and {@code with} of the schema's properties can be compiled (see {@link #compile(Matcher)}).
+ * Properties are recognized by identity (see {@link Matcher#equals(Object)}), so they have to be the same
+ * (e.g. constant) instances as the ones the schema is built with.
+ * <p>
+ * The dictionary only ever grows: it keeps every distinct attribute value of the trees encoded (and compared to by compiled matchers)
+ * for as long as the schema is reachable, so that value ids stay valid. To bound it, use a schema per batch of trees
+ * (e.g. per query), together with the flat trees and matchers of that batch.
+ * Evaluating compiled matchers doesn't lock the dictionary, only encoding trees and compiling matchers do.
+ */
+public final class FlatTreeSchema<N> {
+
+    static final int NULL = -1;
+    static final int ABSENT = -2;
+
+    private final Function<? super N, ? extends List<? extends N>> children;
+    private final List<Class<?>> kinds;
+    private final Map<Class<?>, Integer> kindIds;
+    private final List<Column> columns;
+    private final Map<Object, Column> columnsByKey;
+
+    //the dictionary, guarded by this schema's lock
+    private final Map<Object, Integer> valueIds = new HashMap<>();
+    private final List<Object> values = new ArrayList<>();
+    //whether each value is an instance of the scope types of compiled value tests, see instanceTable()
+    private final Map<Class<?>, InstanceTable> instanceTables = new HashMap<>();
+
+    private FlatTreeSchema(Builder<N> builder) {
+        this.children = builder.children;
+        this.kinds = Collections.unmodifiableList(new ArrayList<>(builder.kinds));
+        this.kindIds = new HashMap<>();
+        for (int i = 0; i < kinds.size(); i++) {
+            kindIds.put(kinds.get(i), i);
+        }
+        List<Column> columns = new ArrayList<>();
+        this.columnsByKey = new HashMap<>();
+        for (ColumnDefinition definition : builder.columns) {
+            Column column = new Column(definition.sourceType, definition.property.matching(Matcher.any()), definition.child);
+            columns.add(column);
+            columnsByKey.put(column.key, column);
+        }
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    public static <N> Builder<N> builder(Function<? super N, ? extends List<? extends N>> children) {
+        return new Builder<>(children);
+    }
+
+    /**
+     * Encodes the tree in pre-order, so that subtrees are contiguous. Null children are skipped,
+     * nodes reachable through more than one parent are encoded once.
+     *
+     * @throws IllegalArgumentException if the tree has nodes of undeclared kinds,
+     * or child properties with values that aren't nodes of the tree
+     */
+    public FlatTree encode(N root) {
+        Util.checkNotNull(root);
+        IdentityHashMap<Object, Integer> nodeIds = new IdentityHashMap<>();
+        List<N> nodes = new ArrayList<>();
+        Deque<N> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            N node = toVisit.pop();
+            if (nodeIds.putIfAbsent(node, nodes.size()) != null) {
+                continue;
+            }
+            nodes.add(node);
+            List<? extends N> nodeChildren = children.apply(node);
+            for (int i = nodeChildren.size() - 1; i >= 0; i--) {
+                if (nodeChildren.get(i) != null) {
+                    toVisit.push(nodeChildren.get(i));
+                }
+            }
+        }
+
+        int nodeCount = nodes.size();
+        int[] nodeKinds = new int[nodeCount];
+        int[] childStart = new int[nodeCount + 1];
+        int[] childIds = new int[16];
+        int childCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            N value = nodes.get(node);
+            Integer kind = kindIds.get(value.getClass());
+            Util.checkArgument(kind != null, value.getClass().getName() + " isn't a node kind of this schema");
+            nodeKinds[node] = kind;
+            childStart[node] = childCount;
+            for (N child : children.apply(value)) {
+                if (child != null) {
+                    if (childCount == childIds.length) {
+                        childIds = Arrays.copyOf(childIds, childCount * 2);
+                    }
+                    childIds[childCount++] = nodeIds.get(child);
+                }
+            }
+        }
+        childStart[nodeCount] = childCount;
+
+        int[][] columnValues = new int[columns.size()][];
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            int[] encoded = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                encoded[node] = column.encode(nodes.get(node), nodeIds);
+            }
+            columnValues[i] = encoded;
+        }
+        return new FlatTree(this, nodeKinds, childStart, Arrays.copyOf(childIds, childCount), columnValues);
+    }
+
+    /**
+     * @return the matcher, evaluated over flat trees of this schema
+     * @throws IllegalArgumentException if the matcher has steps that can't be evaluated over flat trees,
+     * e.g. predicates or properties not in this schema
+     */
+    public FlatMatcher compile(Matcher<?> matcher) {
+        return new FlatMatcher(this, compileNodeTest(matcher));
+    }
+
+    //tests of node ids, or NULL for null nodes
+    private FlatMatcher.NodeTest compileNodeTest(Matcher<?> matcher) {
+        List<Matcher<?>> steps = steps(matcher);
+        Matcher<?> root = steps.get(0);
+        boolean[] kindMatches = new boolean[kinds.size()];
+        Class<?> scopeType = (Class<?>) root.getStepOperands().get(0);
+        for (int i = 0; i < kinds.size(); i++) {
+            kindMatches[i] = scopeType.isAssignableFrom(kinds.get(i));
+        }
+        boolean matchesNull = isNullable(root);
+        FlatMatcher.NodeTest test = (tree, node) -> node == NULL ? matchesNull : kindMatches[tree.getKind(node)];
+        for (Matcher<?> step : steps.subList(1, steps.size())) {
+            test = test.and(compileNodeStep(step));
+        }
+        return test;
+    }
+
+    private FlatMatcher.NodeTest compileNodeStep(Matcher<?> step) {
+        List<?> operands = step.getStepOperands();
+        switch (step.getStepLabel()) {
+            case "capturedAs":
+                return (tree, node) -> true;
+            case "matching":
+                if (operands.get(0) instanceof Matcher) {
+                    return compileNodeTest((Matcher<?>) operands.get(0));
+                }
+                break;
+            case "with":
+                Column column = columnsByKey.get(operands.get(0));
+                Util.checkArgument(column != null, "with() of a property that isn't in this schema can't be evaluated over a flat tree");
+                int columnIndex = columns.indexOf(column);
+                Matcher<?> propertyMatcher = (Matcher<?>) operands.get(1);
+                if (column.child) {
+                    FlatMatcher.NodeTest childTest = compileNodeTest(propertyMatcher);
+                    return (tree, node) -> {
+                        int child = tree.getColumnValue(columnIndex, node);
+                        return child != ABSENT && childTest.test(tree, child);
+                    };
+                }
+                FlatMatcher.NodeTest valueTest = compileValueTest(propertyMatcher);
+                return (tree, node) -> {
+                    int valueId = tree.getColumnValue(columnIndex, node);
+                    return valueId != ABSENT && valueTest.test(tree, valueId);
+                };
+            default:
+        }
+        throw new IllegalArgumentException("Step " + step.getStepLabel() + " can't be evaluated over a flat tree");
+    }
+
+    //tests of attribute value ids, or NULL for null values
+    private FlatMatcher.NodeTest compileValueTest(Matcher<?> matcher) {
+        List<Matcher<?>> steps = steps(matcher);
+        Matcher<?> root = steps.get(0);
+        Class<?> scopeType = (Class<?>) root.getStepOperands().get(0);
+        boolean matchesNull = isNullable(root);
+        FlatMatcher.NodeTest test;
+        if (scopeType == Object.class || comparesToInstance(steps, scopeType)) {
+            //the type test is implied by the comparison
+            test = (tree, valueId) -> valueId != NULL || matchesNull;
+        } else {
+            InstanceTable instanceTable = instanceTable(scopeType);
+            test = (tree, valueId) -> valueId == NULL ? matchesNull : instanceTable.isInstance(valueId);
+        }
+        for (Matcher<?> step : steps.subList(1, steps.size())) {
+            List<?> operands = step.getStepOperands();
+            switch (step.getStepLabel()) {
+                case "capturedAs":
+                    continue;
+                case "equalTo":
+                    int expectedId = intern(operands.get(0));
+                    test = test.and((tree, valueId) -> valueId == expectedId);
+                    continue;
+                case "matching":
+                    if (operands.get(0) instanceof Matcher) {
+                        test = test.and(compileValueTest((Matcher<?>) operands.get(0)));
+                        continue;
+                    }
+                    break;
+                default:
+            }
+            throw new IllegalArgumentException("Step " + step.getStepLabel() + " can't be evaluated over a flat tree's attributes");
+        }
+        return test;
+    }
+
+    private static boolean comparesToInstance(List<Matcher<?>> steps, Class<?> scopeType) {
+        for (Matcher<?> step : steps) {
+            if (step.getStepLabel().equals("equalTo") && scopeType.isInstance(step.getStepOperands().get(0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //the steps of the matcher, starting with its root
+    private static List<Matcher<?>> steps(Matcher<?> matcher) {
+        List<Matcher<?>> steps = new ArrayList<>();
+        for (Matcher<?> step = matcher; step != null; step = step.getPrevious()) {
+            steps.add(step);
+        }
+        Collections.reverse(steps);
+        String rootLabel = steps.get(0).getStepLabel();
+        Util.checkArgument(rootLabel.equals("typeOf") || rootLabel.equals("nullable"),
+                "Matchers evaluated over a flat tree must start with a typeOf() or nullable() type test");
+        return steps;
+    }
+
+    private static boolean isNullable(Matcher<?> root) {
+        return root.getStepLabel().equals("nullable");
+    }
+
+    synchronized int intern(Object value) {
+        Integer id = valueIds.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            valueIds.put(value, id);
+            for (Map.Entry<Class<?>, InstanceTable> entry : instanceTables.entrySet()) {
+                entry.getValue().add(id, entry.getKey().isInstance(value));
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the table of whether the values interned so far, and the ones interned later on, are instances of the type
+     */
+    private synchronized InstanceTable instanceTable(Class<?> type) {
+        return instanceTables.computeIfAbsent(type, __ -> {
+            InstanceTable instanceTable = new InstanceTable(values.size());
+            for (int id = 0; id < values.size(); id++) {
+                instanceTable.add(id, type.isInstance(values.get(id)));
+            }
+            return instanceTable;
+        });
+    }
+
+    Class<?> getKind(int kind) {
+        return kinds.get(kind);
+    }
+
+    /**
+     * Whether each value of the dictionary is an instance of a type, computed when the value is interned.
+     * Added to under the schema's lock, read without locking: an id read from a flat tree was added
+     * before the tree was encoded, and so before the volatile write publishing it here.
+     */
+    private static final class InstanceTable {
+
+        private volatile boolean[] instances;
+
+        private InstanceTable(int capacity) {
+            this.instances = new boolean[Math.max(capacity, 16)];
+        }
+
+        private void add(int valueId, boolean instance) {
+            boolean[] instances = this.instances;
+            if (valueId == instances.length) {
+                instances = Arrays.copyOf(instances, valueId * 2);
+            }
+            instances[valueId] = instance;
+            this.instances = instances;
+        }
+
+        private boolean isInstance(int valueId) {
+            return instances[valueId];
+        }
+    }
+
+    private final class Column {
+
+        private final Class<?> sourceType;
+        private final Object key;
+        private final Function<Object, Option<?>> property;
+        private final boolean child;
+
+        @SuppressWarnings("unchecked cast")
+        //only applied to instances of the source type
+        private Column(Class<?> sourceType, PropertyMatcher<?, ?> propertyMatcher, boolean child) {
+            this.sourceType = sourceType;
+            this.key = propertyMatcher.getKey();
+            this.property = (Function<Object, Option<?>>) (Function<?, Option<?>>) propertyMatcher.getProperty();
+            this.child = child;
+        }
+
+        private int encode(Object node, IdentityHashMap<Object, Integer> nodeIds) {
+            if (!sourceType.isInstance(node)) {
+                return ABSENT;
+            }
+            Option<?> value = property.apply(node);
+            if (!value.isPresent()) {
+                return ABSENT;
+            }
+            if (value.value() == null) {
+                return NULL;
+            }
+            if (!child) {
+                return intern(value.value());
+            }
+            Integer nodeId = nodeIds.get(value.value());
+            Util.checkArgument(nodeId != null, "Child property value of a " + node.getClass().getName() + " isn't a node of the tree");
+            return nodeId;
+        }
+    }
+
+    public static final class Builder<N> {
+
+        private final Function<? super N, ? extends List<? extends N>> children;
+        private final List<Class<?>> kinds = new ArrayList<>();
+        private final List<ColumnDefinition> columns = new ArrayList<>();
+
+        private Builder(Function<? super N, ? extends List<? extends N>> children) {
+            this.children = Util.checkNotNull(children);
+        }
+
+        @SafeVarargs
+        public final Builder<N> kinds(Class<? extends N>... kinds) {
+            for (Class<? extends N> kind : kinds) {
+                Util.checkArgument(!this.kinds.contains(kind), kind.getName() + " is already a node kind");
+                this.kinds.add(kind);
+            }
+            return this;
+        }
+
+        /**
+         * @param property a property of the nodes of the given type, whose values are nodes of the same tree
+         */
+        public <S> Builder<N> child(Class<S> sourceType, Property<S, ? extends N> property) {
+            columns.add(new ColumnDefinition(sourceType, property, true));
+            return this;
+        }
+
+        /**
+         * @param property a property of the nodes of the given type. Its values are dictionary-encoded, so they must have a proper equals().
+         */
+        public <S> Builder<N> attribute(Class<S> sourceType, Property<S, ?> property) {
+            columns.add(new ColumnDefinition(sourceType, property, false));
+            return this;
+        }
+
+        public FlatTreeSchema<N> build() {
+            return new FlatTreeSchema<>(this);
+        }
+    }
+
+    private static final class ColumnDefinition {
+
+        private final Class<?> sourceType;
+        private final Property<?, ?> property;
+        private final boolean child;
+
+        private ColumnDefinition(Class<?> sourceType, Property<?, ?> property, boolean child) {
+            this.sourceType = Util.checkNotNull(sourceType);
+            this.property = Util.checkNotNull(property);
+            this.child = child;
+        }
+    }
+}
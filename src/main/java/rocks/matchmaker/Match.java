@@ -8,6 +8,9 @@ import static rocks.matchmaker.util.Util.checkNotNull;
 
 public abstract class Match<T> {
 
+    private static final Match<?> EMPTY = new Match.Empty<>();
+    private static final Match<?> EXHAUSTED = new Match.Exhausted<>();
+
     public abstract boolean isPresent();
 
     public abstract T value();
@@ -16,13 +19,27 @@ public abstract class Match<T> {
         return !isPresent();
     }
 
+    /**
+     * @return true if the evaluation was stopped because its {@link MatchBudget} was exceeded.
+     * Such a match is also empty, but it doesn't mean the matched object doesn't match.
+     */
+    public boolean isExhausted() {
+        return false;
+    }
+
     public static <S> Match<S> of(S value, Captures captures) {
         checkNotNull(captures);
         return new Match.Present<>(value, captures);
     }
 
+    @SuppressWarnings("unchecked cast")
     public static <S> Match<S> empty() {
-        return new Match.Empty<>();
+        return (Match<S>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked cast")
+    public static <S> Match<S> exhausted() {
+        return (Match<S>) EXHAUSTED;
     }
 
     public abstract Match<T> filter(Predicate<? super T> predicate);
@@ -149,4 +166,37 @@ public abstract class Match<T> {
             return "Match.Empty()";
         }
     }
+
+    static class Exhausted<T> extends Empty<T> {
+
+        @Override
+        public boolean isExhausted() {
+            return true;
+        }
+
+        @Override
+        public T value() {
+            throw new NoSuchElementException("Match budget exhausted");
+        }
+
+        @Override
+        public <U> Match<U> map(Function<? super T, ? extends U> mapper) {
+            return exhausted();
+        }
+
+        @Override
+        public <U> Match<U> flatMap(Function<? super T, Match<U>> mapper) {
+            return exhausted();
+        }
+
+        @Override
+        public Captures captures() {
+            throw new NoSuchElementException("Match budget exhausted");
+        }
+
+        @Override
+        public String toString() {
+            return "Match.Exhausted()";
+        }
+    }
 }
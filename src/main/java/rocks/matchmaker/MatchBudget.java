@@ -0,0 +1,67 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the work a single match evaluation may do. A step is a single
+ * evaluation of a matcher building block: a type test, a predicate, an extractor,
+ * a property access, a capture etc.
+ * <p>
+ * When the budget is exceeded, the evaluation stops trying further steps
+ * and the match results in {@link Match#exhausted()}.
+ * <p>
+ * A budget is immutable and can be shared between threads and matchers (e.g. all the rules of a rule set).
+ * It counts how many times it was exhausted.
+ */
+public class MatchBudget {
+
+    private final long maxSteps;
+    private final long maxDurationNanos;
+    private final LongAdder exhaustions = new LongAdder();
+
+    private MatchBudget(long maxSteps, long maxDurationNanos) {
+        Util.checkArgument(maxSteps > 0, "maxSteps must be positive");
+        Util.checkArgument(maxDurationNanos > 0, "maxDuration must be positive");
+        this.maxSteps = maxSteps;
+        this.maxDurationNanos = maxDurationNanos;
+    }
+
+    public static MatchBudget steps(long maxSteps) {
+        return new MatchBudget(maxSteps, Long.MAX_VALUE);
+    }
+
+    public static MatchBudget duration(Duration maxDuration) {
+        return new MatchBudget(Long.MAX_VALUE, maxDuration.toNanos());
+    }
+
+    public static MatchBudget of(long maxSteps, Duration maxDuration) {
+        return new MatchBudget(maxSteps, maxDuration.toNanos());
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public Duration getMaxDuration() {
+        return Duration.ofNanos(maxDurationNanos);
+    }
+
+    public long getExhaustedCount() {
+        return exhaustions.sum();
+    }
+
+    boolean hasDeadline() {
+        return maxDurationNanos != Long.MAX_VALUE;
+    }
+
+    long getMaxDurationNanos() {
+        return maxDurationNanos;
+    }
+
+    void recordExhaustion() {
+        exhaustions.increment();
+    }
+}
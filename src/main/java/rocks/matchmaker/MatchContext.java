@@ -0,0 +1,131 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.MemoizingIterable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * State of a single match evaluation.
+ * <p>
+ * It keeps track of the steps taken when the evaluation is bound by a {@link MatchBudget}
+ * and carries the profiler of profiled evaluations (see {@link MatchProfiler}).
+ * <p>
+ * In backtracking evaluation, enumerating alternatives for list elements may evaluate the same
+ * element matcher against the same element with the same captures many times (e.g. when an earlier
+ * condition doesn't bind anything). Such repeated subproblems are evaluated once and
+ * their (lazily computed) alternatives are shared.
+ */
+class MatchContext {
+
+    //Shared by all unbounded single-match evaluations, which keep no state in the context.
+    private static final MatchContext UNBOUNDED = new MatchContext(null, null);
+
+    //must be a power of two
+    private static final int DEADLINE_CHECK_INTERVAL = 256;
+
+    private final MatchBudget budget;
+    private final StepProfiler profiler;
+    private final long deadline;
+    private long steps;
+    private boolean exhausted;
+    private Map<MemoKey, MemoizingIterable<?>> memo;
+
+    MatchContext(MatchBudget budget, StepProfiler profiler) {
+        this.budget = budget;
+        this.profiler = profiler;
+        this.deadline = budget != null && budget.hasDeadline() ? System.nanoTime() + budget.getMaxDurationNanos() : 0;
+    }
+
+    static MatchContext unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * Accounts for a single evaluation step.
+     *
+     * @return false if the budget is exhausted and the step must not be taken
+     */
+    boolean tryStep() {
+        return budget == null || (!exhausted && countStep());
+    }
+
+    private boolean countStep() {
+        steps++;
+        if (steps > budget.getMaxSteps()
+                || (budget.hasDeadline() && (steps & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && System.nanoTime() - deadline > 0)) {
+            exhausted = true;
+            budget.recordExhaustion();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the evaluation is bound by a budget, see {@link #tryStep()}
+     */
+    boolean isBounded() {
+        return budget != null;
+    }
+
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * @return the profiler of this evaluation, or null if it isn't profiled
+     */
+    StepProfiler getProfiler() {
+        return profiler;
+    }
+
+    @SuppressWarnings("unchecked cast")
+    <T> Iterator<Match<T>> memoized(Matcher<T> matcher, Object value, Captures captures, Supplier<Iterator<Match<T>>> alternatives) {
+        if (memo == null) {
+            memo = new HashMap<>();
+        }
+        MemoKey key = new MemoKey(matcher, value, captures);
+        MemoizingIterable<Match<T>> results = (MemoizingIterable<Match<T>>) memo.get(key);
+        MatchEvents.memoLookup(results != null);
+        if (results == null) {
+            results = new MemoizingIterable<>(alternatives.get());
+            memo.put(key, results);
+        }
+        return results.iterator();
+    }
+
+    //all components are compared by identity: Captures equality is structural and would be costly,
+    //while the matched values may have arbitrary (or no) equality defined.
+    private static class MemoKey {
+
+        private final Matcher<?> matcher;
+        private final Object value;
+        private final Captures captures;
+
+        private MemoKey(Matcher<?> matcher, Object value, Captures captures) {
+            this.matcher = matcher;
+            this.value = value;
+            this.captures = captures;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MemoKey memoKey = (MemoKey) o;
+
+            return matcher == memoKey.matcher && value == memoKey.value && captures == memoKey.captures;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(matcher);
+            result = 31 * result + System.identityHashCode(value);
+            result = 31 * result + System.identityHashCode(captures);
+            return result;
+        }
+    }
+}
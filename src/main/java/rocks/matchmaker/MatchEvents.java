@@ -0,0 +1,27 @@
+package rocks.matchmaker;
+
+/**
+ * Hooks for reporting match evaluations to external observers.
+ * <p>
+ * This is a no-op implementation for Java 8. On Java 11+, the multi-release jar replaces it
+ * with one emitting Java Flight Recorder events (see src/main/java11).
+ * Both implementations must keep the same signatures.
+ */
+final class MatchEvents {
+
+    private MatchEvents() {}
+
+    static <T> Match<T> match(Matcher<T> matcher, Object object, Captures captures, MatchContext context) {
+        return matcher.match(object, captures, context);
+    }
+
+    static <R> Match<R> evaluateCase(int caseIndex, Matcher<R> matcher, Object object, int candidates, MatchContext context) {
+        return matcher.match(object, Captures.empty(), context);
+    }
+
+    static void memoLookup(boolean hit) {
+    }
+
+    static void unreachableCase(int caseIndex, int subsumingCaseIndex) {
+    }
+}
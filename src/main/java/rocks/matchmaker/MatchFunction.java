@@ -0,0 +1,17 @@
+package rocks.matchmaker;
+
+import java.util.function.BiFunction;
+
+/**
+ * A Matcher's match function. The MatchContext is threaded through the whole evaluation,
+ * so that per-evaluation state (e.g. the {@link MatchBudget}) is available to every step.
+ */
+@FunctionalInterface
+interface MatchFunction<F, T> {
+
+    Match<T> apply(F value, Captures captures, MatchContext context);
+
+    static <F, T> MatchFunction<F, T> of(BiFunction<? super F, Captures, Match<T>> matchFunction) {
+        return (value, captures, context) -> matchFunction.apply(value, captures);
+    }
+}
@@ -0,0 +1,180 @@
+package rocks.matchmaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Builds the promoted match function of a tiered matcher, see {@link Matcher#tiered(int, java.util.concurrent.Executor)},
+ * from the matcher's guard: the tests of the values it can match, evaluated without evaluating the matcher.
+ * <p>
+ * The guard covers the matcher's type test and the steps testing the matched value that follow it
+ * ({@code equalTo}, {@code matching} a predicate or a matcher, {@code with} a property and the literal {@link StringMatchers}),
+ * up to the first step replacing the value (e.g. an extractor). Like {@link FlatTreeSchema#compile(Matcher)},
+ * it's built from the steps the matcher records, and evaluates them in the same order, but without allocating:
+ * no matches and captures are built, and properties read through {@link Property#field(Class, String)} and
+ * {@link Property#getter(Class, String)} aren't wrapped.
+ * <p>
+ * When the guard covers all the matcher's steps, and they capture nothing, the guard replaces the matcher:
+ * the values it accepts are matched as they are, or mapped by the matcher's last step if that's a case's result
+ * (see {@link PatternMatch#caseMatcher(Matcher, Function)}). Otherwise, it's a pre-filter: the values it accepts
+ * are matched by the matcher, which evaluates the guard's tests again.
+ */
+final class MatchGuard {
+
+    private MatchGuard() {}
+
+    //how much of a matcher its guard covers
+    private enum Coverage {
+        //all the steps, which capture nothing: the guard accepts exactly the values the matcher matches
+        EXACT,
+        //all the steps, which leave the matched value as it is, but may capture it or fail on values the guard accepts
+        VALUE,
+        //the steps up to one the guard can't cover
+        PREFIX
+    }
+
+    /**
+     * @return the promoted match function of the matcher, evaluating the given interpreted function where the guard doesn't replace it,
+     * or the interpreted function itself if the matcher tests nothing the guard could cover
+     */
+    @SuppressWarnings("unchecked cast")
+    //the guard accepts exactly the values the matcher matches as they are, or maps by its last step
+    static <T> MatchFunction<Object, T> promote(Matcher<T> matcher, MatchFunction<Object, T> interpreted) {
+        List<Predicate<Object>> tests = new ArrayList<>();
+        if (addTests(matcher, tests) == Coverage.EXACT) {
+            Predicate<Object> guard = allOf(tests);
+            return guard == null ?
+                    (object, captures, context) -> Match.of((T) object, captures) :
+                    (object, captures, context) -> guard.test(object) ? Match.of((T) object, captures) : Match.empty();
+        }
+        if (matcher.getStepLabel().equals("returns")) {
+            tests.clear();
+            if (addTests(matcher.getPrevious(), tests) == Coverage.EXACT) {
+                Predicate<Object> guard = allOf(tests);
+                MatchFunction<Object, T> result = (MatchFunction<Object, T>) matcher.getStepOperands().get(0);
+                return guard == null ?
+                        result :
+                        (object, captures, context) -> guard.test(object) ? result.apply(object, captures, context) : Match.empty();
+            }
+        }
+        Predicate<Object> guard = allOf(tests);
+        return guard == null ?
+                interpreted :
+                (object, captures, context) -> guard.test(object) ? interpreted.apply(object, captures, context) : Match.empty();
+    }
+
+    private static Predicate<Object> allOf(List<Predicate<Object>> tests) {
+        if (tests.isEmpty()) {
+            return null;
+        }
+        if (tests.size() == 1) {
+            return tests.get(0);
+        }
+        @SuppressWarnings("unchecked")
+        Predicate<Object>[] allTests = tests.toArray(new Predicate[0]);
+        return value -> {
+            for (Predicate<Object> test : allTests) {
+                if (!test.test(value)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Adds the tests of the matcher's steps, up to the first one that doesn't test the matched value.
+     */
+    @SuppressWarnings("unchecked cast")
+    //predicates and properties are applied to the values their steps apply them to
+    private static Coverage addTests(Matcher<?> matcher, List<Predicate<Object>> tests) {
+        Coverage coverage = Coverage.EXACT;
+        for (Matcher<?> step : steps(matcher)) {
+            List<?> operands = step.getStepOperands();
+            switch (step.getStepLabel()) {
+                case "typeOf":
+                    tests.add(TypeTest.of((Class<?>) operands.get(0))::test);
+                    continue;
+                case "nullable":
+                    if (operands.get(0) != Object.class) {
+                        TypeTest typeTest = TypeTest.of((Class<?>) operands.get(0));
+                        tests.add(value -> value == null || typeTest.test(value));
+                    }
+                    continue;
+                case "equalTo":
+                    tests.add(operands.get(0)::equals);
+                    continue;
+                case "startsWith":
+                    String prefix = (String) operands.get(0);
+                    tests.add(value -> ((String) value).startsWith(prefix));
+                    continue;
+                case "endsWith":
+                    String suffix = (String) operands.get(0);
+                    tests.add(value -> ((String) value).endsWith(suffix));
+                    continue;
+                case "contains":
+                    String literal = (String) operands.get(0);
+                    tests.add(value -> ((String) value).contains(literal));
+                    continue;
+                case "capturedAs":
+                    coverage = Coverage.VALUE;
+                    continue;
+                case "tiered":
+                    continue;
+                case "matching":
+                    if (operands.get(0) instanceof Predicate) {
+                        tests.add((Predicate<Object>) operands.get(0));
+                        continue;
+                    }
+                    //a matcher's value is the matched value as long as all its steps test it
+                    if (operands.get(0) instanceof Matcher) {
+                        Coverage matcherCoverage = addTests((Matcher<?>) operands.get(0), tests);
+                        if (matcherCoverage == Coverage.PREFIX) {
+                            return Coverage.PREFIX;
+                        }
+                        coverage = matcherCoverage == Coverage.EXACT ? coverage : Coverage.VALUE;
+                        continue;
+                    }
+                    return Coverage.PREFIX;
+                case "with":
+                    List<Predicate<Object>> propertyTests = new ArrayList<>();
+                    //the property's matcher doesn't replace the matched value, however much of it is covered
+                    coverage = addTests((Matcher<?>) operands.get(1), propertyTests) == Coverage.EXACT ? coverage : Coverage.VALUE;
+                    Predicate<Object> propertyTest = allOf(propertyTests);
+                    if (operands.get(0) instanceof PropertyAccessor) {
+                        PropertyAccessor accessor = (PropertyAccessor) operands.get(0);
+                        if (propertyTest != null) {
+                            tests.add(value -> propertyTest.test(accessor.apply(value)));
+                        }
+                        continue;
+                    }
+                    //other properties are keyed by their function, see PropertyMatcher
+                    if (operands.get(0) instanceof Function) {
+                        Function<Object, Option<?>> property = (Function<Object, Option<?>>) operands.get(0);
+                        tests.add(value -> {
+                            Option<?> propertyValue = property.apply(value);
+                            return propertyValue.isPresent() && (propertyTest == null || propertyTest.test(propertyValue.value()));
+                        });
+                        continue;
+                    }
+                    return Coverage.PREFIX;
+                default:
+                    return Coverage.PREFIX;
+            }
+        }
+        return coverage;
+    }
+
+    //the steps of the matcher, starting with its root
+    private static List<Matcher<?>> steps(Matcher<?> matcher) {
+        List<Matcher<?>> steps = new ArrayList<>();
+        for (Matcher<?> step = matcher; step != null; step = step.getPrevious()) {
+            steps.add(step);
+        }
+        Collections.reverse(steps);
+        return steps;
+    }
+}
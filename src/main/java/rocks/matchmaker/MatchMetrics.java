@@ -0,0 +1,251 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in statistics of a {@link PatternMatch}'s cases: how often each case is tried and succeeds,
+ * how long it takes (sampled) and how many candidate cases are left for each type of matched object
+ * after narrowing the cases down by their scope types.
+ * <p>
+ * Pattern matches without metrics are evaluated by code that doesn't know about metrics at all,
+ * so there's no cost when they're not used.
+ * <p>
+ * The cases are counted by their index, so metrics record the cases of a single pattern match
+ * (and of the rule sets and compiled pattern matches built from it).
+ * <p>
+ * Metrics are thread-safe. Use {@link #snapshot()} to export them.
+ */
+public class MatchMetrics {
+
+    private static final int DEFAULT_SAMPLING_INTERVAL = 64;
+    private static final int HISTOGRAM_BUCKETS = 64;
+
+    private final int samplingInterval;
+    //the pattern match whose cases are recorded, see recordCasesOf()
+    private Object patternMatch;
+    private CaseMetrics[] cases = new CaseMetrics[0];
+    private final ConcurrentHashMap<Class<?>, ScopeTypeMetrics> scopeTypes = new ConcurrentHashMap<>();
+
+    private MatchMetrics(int samplingInterval) {
+        Util.checkArgument(samplingInterval > 0, "samplingInterval must be positive");
+        this.samplingInterval = samplingInterval;
+    }
+
+    public static MatchMetrics create() {
+        return sampledEvery(DEFAULT_SAMPLING_INTERVAL);
+    }
+
+    /**
+     * @param samplingInterval on average, every samplingInterval-th case evaluation has its latency measured
+     */
+    public static MatchMetrics sampledEvery(int samplingInterval) {
+        return new MatchMetrics(samplingInterval);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the metrics already record the cases of another pattern match
+     */
+    synchronized void recordCasesOf(Object patternMatch) {
+        Util.checkArgument(this.patternMatch == null || this.patternMatch == patternMatch, "The metrics already record the cases of another pattern match");
+        this.patternMatch = patternMatch;
+    }
+
+    //called when a match function is built, so that the hot path doesn't need to look up case metrics
+    synchronized CaseMetrics[] forCases(int caseCount) {
+        if (cases.length < caseCount) {
+            CaseMetrics[] newCases = Arrays.copyOf(cases, caseCount);
+            for (int i = cases.length; i < caseCount; i++) {
+                newCases[i] = new CaseMetrics();
+            }
+            cases = newCases;
+        }
+        return cases;
+    }
+
+    <R> Match<R> evaluateCase(CaseMetrics caseMetrics, int caseIndex, Matcher<R> matcher, Object object, int candidates, MatchContext context) {
+        Match<R> match;
+        if (ThreadLocalRandom.current().nextInt(samplingInterval) == 0) {
+            long start = System.nanoTime();
+            match = MatchEvents.evaluateCase(caseIndex, matcher, object, candidates, context);
+            caseMetrics.recordLatency(System.nanoTime() - start);
+        } else {
+            match = MatchEvents.evaluateCase(caseIndex, matcher, object, candidates, context);
+        }
+        (match.isPresent() ? caseMetrics.successes : caseMetrics.failures).increment();
+        return match;
+    }
+
+    void recordCandidates(Class<?> objectType, int candidates) {
+        ScopeTypeMetrics metrics = scopeTypes.get(objectType);
+        if (metrics == null) {
+            metrics = scopeTypes.computeIfAbsent(objectType, __ -> new ScopeTypeMetrics());
+        }
+        metrics.dispatches.increment();
+        metrics.candidates.add(candidates);
+    }
+
+    public Snapshot snapshot() {
+        CaseMetrics[] currentCases;
+        synchronized (this) {
+            currentCases = cases;
+        }
+        List<CaseSnapshot> caseSnapshots = new ArrayList<>(currentCases.length);
+        for (int i = 0; i < currentCases.length; i++) {
+            caseSnapshots.add(currentCases[i].snapshot(i));
+        }
+        Map<Class<?>, ScopeTypeSnapshot> scopeTypeSnapshots = new HashMap<>();
+        scopeTypes.forEach((type, metrics) -> scopeTypeSnapshots.put(type, metrics.snapshot()));
+        return new Snapshot(caseSnapshots, scopeTypeSnapshots);
+    }
+
+    static class CaseMetrics {
+
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        //bucket i counts latencies in the [2^(i-1), 2^i) nanoseconds range
+        private final LongAdder[] latencyHistogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+        private CaseMetrics() {
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                latencyHistogram[i] = new LongAdder();
+            }
+        }
+
+        private void recordLatency(long nanos) {
+            latencyHistogram[Math.min(HISTOGRAM_BUCKETS - 1, HISTOGRAM_BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0)))].increment();
+        }
+
+        private CaseSnapshot snapshot(int caseIndex) {
+            long[] histogram = new long[latencyHistogram.length];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = latencyHistogram[i].sum();
+            }
+            return new CaseSnapshot(caseIndex, successes.sum(), failures.sum(), histogram);
+        }
+    }
+
+    private static class ScopeTypeMetrics {
+
+        private final LongAdder dispatches = new LongAdder();
+        private final LongAdder candidates = new LongAdder();
+
+        private ScopeTypeSnapshot snapshot() {
+            return new ScopeTypeSnapshot(dispatches.sum(), candidates.sum());
+        }
+    }
+
+    public static class Snapshot {
+
+        private final List<CaseSnapshot> cases;
+        private final Map<Class<?>, ScopeTypeSnapshot> scopeTypes;
+
+        private Snapshot(List<CaseSnapshot> cases, Map<Class<?>, ScopeTypeSnapshot> scopeTypes) {
+            this.cases = Collections.unmodifiableList(cases);
+            this.scopeTypes = Collections.unmodifiableMap(scopeTypes);
+        }
+
+        /**
+         * @return metrics of the cases, in the order the cases were defined in
+         */
+        public List<CaseSnapshot> getCases() {
+            return cases;
+        }
+
+        /**
+         * @return candidate case metrics per (runtime) type of matched objects.
+         * Nulls, for which all the cases are candidates, aren't included.
+         */
+        public Map<Class<?>, ScopeTypeSnapshot> getScopeTypes() {
+            return scopeTypes;
+        }
+    }
+
+    public static class CaseSnapshot {
+
+        private final int caseIndex;
+        private final long successes;
+        private final long failures;
+        private final long[] latencyHistogram;
+
+        private CaseSnapshot(int caseIndex, long successes, long failures, long[] latencyHistogram) {
+            this.caseIndex = caseIndex;
+            this.successes = successes;
+            this.failures = failures;
+            this.latencyHistogram = latencyHistogram;
+        }
+
+        public int getCaseIndex() {
+            return caseIndex;
+        }
+
+        public long getAttempts() {
+            return successes + failures;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return counts of sampled latencies, where the i-th bucket counts latencies
+         * in the [2^(i-1), 2^i) nanoseconds range
+         */
+        public long[] getLatencyHistogram() {
+            return latencyHistogram.clone();
+        }
+
+        public long getLatencySamples() {
+            return Arrays.stream(latencyHistogram).sum();
+        }
+
+        /**
+         * @return an upper bound (with power of 2 precision) of the given percentile of sampled latencies,
+         * in nanoseconds, or 0 if there are no samples yet
+         */
+        public long getLatencyPercentileNanos(double percentile) {
+            Util.checkArgument(percentile >= 0 && percentile <= 100, "percentile must be in the [0, 100] range");
+            long samples = getLatencySamples();
+            long seen = 0;
+            for (int i = 0; i < latencyHistogram.length && samples > 0; i++) {
+                seen += latencyHistogram[i];
+                if (seen >= Math.ceil(samples * percentile / 100)) {
+                    return i == HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    public static class ScopeTypeSnapshot {
+
+        private final long dispatches;
+        private final long candidates;
+
+        private ScopeTypeSnapshot(long dispatches, long candidates) {
+            this.dispatches = dispatches;
+            this.candidates = candidates;
+        }
+
+        public long getDispatches() {
+            return dispatches;
+        }
+
+        public long getCandidates() {
+            return candidates;
+        }
+    }
+}
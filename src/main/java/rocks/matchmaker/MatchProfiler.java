@@ -0,0 +1,117 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Sampling profiler attributing wall time and allocated bytes to the individual steps of matchers:
+ * type tests, property accesses, predicates, extractors, captures and pattern match cases.
+ * <p>
+ * Steps are identified by paths of labels derived from the matchers' structure, e.g.
+ * {@code [1] returnFirst;case[3];[1] with(source);typeOf(ScanNode)},
+ * where the bracketed numbers are the positions of the steps in their matchers.
+ * Steps of a single matcher are siblings, while steps of nested matchers
+ * (property matchers, sub-matchers, pattern match cases) are nested in the step evaluating them.
+ * Name properties (see {@link Property#named(String)}) to make the labels more telling.
+ * <p>
+ * The results are exported in the collapsed stacks format understood by flame graph tools,
+ * with each step's own (self) time or allocation as the value.
+ * <p>
+ * Measuring allocation relies on the HotSpot-specific {@code com.sun.management.ThreadMXBean};
+ * where it's not available, allocations are reported as 0.
+ */
+public class MatchProfiler {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = allocationMeasuringThreadMXBean();
+
+    private final int samplingInterval;
+    private final ConcurrentHashMap<String, StepStatistics> steps = new ConcurrentHashMap<>();
+
+    private MatchProfiler(int samplingInterval) {
+        Util.checkArgument(samplingInterval > 0, "samplingInterval must be positive");
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * @param samplingInterval on average, every samplingInterval-th evaluation is profiled
+     */
+    public static MatchProfiler sampledEvery(int samplingInterval) {
+        return new MatchProfiler(samplingInterval);
+    }
+
+    /**
+     * @return wall time spent in each step, excluding nested steps, in nanoseconds
+     */
+    public String toCollapsedStacks() {
+        return collapsedStacks(statistics -> statistics.nanos.sum());
+    }
+
+    /**
+     * @return bytes allocated by each step, excluding nested steps
+     */
+    public String toCollapsedAllocationStacks() {
+        return collapsedStacks(statistics -> statistics.bytes.sum());
+    }
+
+    public void reset() {
+        steps.clear();
+    }
+
+    private String collapsedStacks(ToLongFunction<StepStatistics> value) {
+        Map<String, StepStatistics> sortedSteps = new TreeMap<>(steps);
+        StringBuilder collapsedStacks = new StringBuilder();
+        sortedSteps.forEach((path, statistics) -> collapsedStacks.append(path)
+                .append(' ')
+                .append(Math.max(0, value.applyAsLong(statistics)))
+                .append('\n'));
+        return collapsedStacks.toString();
+    }
+
+    /**
+     * @return a profiler for a new evaluation if it's to be sampled, null otherwise
+     */
+    StepProfiler sample() {
+        return ThreadLocalRandom.current().nextInt(samplingInterval) == 0 ? new StepProfiler(this) : null;
+    }
+
+    void record(String path, long nanos, long bytes) {
+        StepStatistics statistics = steps.get(path);
+        if (statistics == null) {
+            statistics = steps.computeIfAbsent(path, __ -> new StepStatistics());
+        }
+        statistics.nanos.add(nanos);
+        statistics.bytes.add(bytes);
+    }
+
+    long allocatedBytes(long threadId) {
+        return THREAD_MX_BEAN == null ? 0 : THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMeasuringThreadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocationMeasuringBean = (com.sun.management.ThreadMXBean) threadMXBean;
+                if (allocationMeasuringBean.isThreadAllocatedMemorySupported() && allocationMeasuringBean.isThreadAllocatedMemoryEnabled()) {
+                    return allocationMeasuringBean;
+                }
+            }
+        } catch (LinkageError e) {
+            //not a HotSpot JVM
+        }
+        return null;
+    }
+
+    private static class StepStatistics {
+
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+}
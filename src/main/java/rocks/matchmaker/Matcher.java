@@ -1,10 +1,25 @@
 package rocks.matchmaker;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import rocks.matchmaker.util.Util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 public class Matcher<T> {
 
@@ -15,14 +30,17 @@ public class Matcher<T> {
     public static <T> Matcher<T> equalTo(T expectedValue) {
         Util.checkArgument(expectedValue != null, "expectedValue can't be null. Use `Matcher.isNull()` instead");
         Class<T> expectedClass = (Class<T>) expectedValue.getClass();
-        return typeOf(expectedClass).matching(x -> x.equals(expectedValue));
+        return typeOf(expectedClass).test(step("equalTo", expectedValue), "matching(predicate)", expectedValue::equals);
     }
 
+    //the type test makes the cast safe, while Class.cast() would test the type again
+    @SuppressWarnings("unchecked cast")
     public static <T> Matcher<T> typeOf(Class<T> expectedClass) {
-        BiFunction<Object, Captures, Match<T>> matchFunction = (x, captures) -> Match.of(x, captures)
-                .filter(expectedClass::isInstance)
-                .map(expectedClass::cast);
-        return new Matcher<>(expectedClass, matchFunction, null);
+        TypeTest typeTest = TypeTest.of(expectedClass);
+        MatchFunction<Object, T> matchFunction = (x, captures, context) -> context.tryStep() && typeTest.test(x) ?
+                Match.of((T) x, captures) :
+                Match.empty();
+        return new Matcher<>(expectedClass, StepProfiler.profiled("typeOf(" + expectedClass.getSimpleName() + ")", matchFunction), step("typeOf", expectedClass));
     }
 
     @SuppressWarnings("unchecked cast")
@@ -30,11 +48,13 @@ public class Matcher<T> {
         return (Matcher<T>) nullable(Object.class).matching(Objects::isNull);
     }
 
+    @SuppressWarnings("unchecked cast")
     public static <T> Matcher<T> nullable(Class<T> expectedClass) {
-        BiFunction<Object, Captures, Match<T>> matchFunction = (x, captures) -> Match.of(x, captures)
-                .filter(value -> value == null || expectedClass.isInstance(value))
-                .map(expectedClass::cast);
-        return new Matcher<>(expectedClass, matchFunction, null);
+        TypeTest typeTest = TypeTest.of(expectedClass);
+        MatchFunction<Object, T> matchFunction = (x, captures, context) -> context.tryStep() && (x == null || typeTest.test(x)) ?
+                Match.of((T) x, captures) :
+                Match.empty();
+        return new Matcher<>(expectedClass, StepProfiler.profiled("nullable(" + expectedClass.getSimpleName() + ")", matchFunction), step("nullable", expectedClass));
     }
 
     //This expresses the fact that Matcher is covariant on T.
@@ -44,23 +64,158 @@ public class Matcher<T> {
         return (Matcher<T>) matcher;
     }
 
-    //scopeType unused for now, but will help in debugging and structural equalTo later
     private final Class<?> scopeType;
-    private final BiFunction<Object, Captures, Match<T>> matchFunction;
+    private final MatchFunction<Object, T> matchFunction;
+    private final BacktrackingFunction<Object, T> backtrackingFunction;
+    private final AsyncMatchFunction<Object, T> asyncFunction;
     private final Capture<T> capture;
+    //number of steps following the root type test; used for labelling the steps
+    private final int length;
+    private final MatchBudget budget;
+    private final MatchProfiler profiler;
+    //the previous matcher (null for root matchers) and the step applied to it, see equals()
+    private final Matcher<?> previous;
+    private final Object step;
+    //builds the matcher the same way from equal sub-matchers (null if it can't be), see rebuild()
+    private final Function<List<Matcher<?>>, Matcher<T>> rebuild;
+    private final int hashCode;
 
     //TODO think how to not have this package-private? Make Matcher an interface?
-    Matcher(Class<?> scopeType, BiFunction<Object, Captures, Match<T>> matchFunction, Capture<T> capture) {
+    Matcher(Class<?> scopeType, MatchFunction<Object, T> matchFunction, Capture<T> capture) {
+        this(scopeType, matchFunction, BacktrackingFunction.of(matchFunction), capture);
+    }
+
+    private Matcher(Class<?> scopeType, MatchFunction<Object, T> matchFunction, Object step) {
+        this(scopeType, matchFunction, BacktrackingFunction.of(matchFunction), AsyncMatchFunction.of(matchFunction), null, 0, null, null, null, step, null);
+    }
+
+    Matcher(
+            Class<?> scopeType,
+            MatchFunction<Object, T> matchFunction,
+            BacktrackingFunction<Object, T> backtrackingFunction,
+            Capture<T> capture
+    ) {
+        this(scopeType, matchFunction, backtrackingFunction, AsyncMatchFunction.of(matchFunction), capture);
+    }
+
+    Matcher(
+            Class<?> scopeType,
+            MatchFunction<Object, T> matchFunction,
+            BacktrackingFunction<Object, T> backtrackingFunction,
+            AsyncMatchFunction<Object, T> asyncFunction,
+            Capture<T> capture
+    ) {
+        this(scopeType, matchFunction, backtrackingFunction, asyncFunction, capture, step("matcher", scopeType, matchFunction));
+    }
+
+    /**
+     * @param step describes how the matcher is built, see {@link #equals(Object)}
+     */
+    Matcher(
+            Class<?> scopeType,
+            MatchFunction<Object, T> matchFunction,
+            BacktrackingFunction<Object, T> backtrackingFunction,
+            AsyncMatchFunction<Object, T> asyncFunction,
+            Capture<T> capture,
+            Object step
+    ) {
+        this(scopeType, matchFunction, backtrackingFunction, asyncFunction, capture, step, null);
+    }
+
+    /**
+     * @param rebuild builds the matcher the same way from sub-matchers equal to its own (see {@link #getSubMatchers()})
+     */
+    Matcher(
+            Class<?> scopeType,
+            MatchFunction<Object, T> matchFunction,
+            BacktrackingFunction<Object, T> backtrackingFunction,
+            AsyncMatchFunction<Object, T> asyncFunction,
+            Capture<T> capture,
+            Object step,
+            Function<List<Matcher<?>>, Matcher<T>> rebuild
+    ) {
+        this(scopeType, matchFunction, backtrackingFunction, asyncFunction, capture, 0, null, null, null, step, rebuild);
+    }
+
+    private Matcher(
+            Class<?> scopeType,
+            MatchFunction<Object, T> matchFunction,
+            BacktrackingFunction<Object, T> backtrackingFunction,
+            AsyncMatchFunction<Object, T> asyncFunction,
+            Capture<T> capture,
+            int length,
+            MatchBudget budget,
+            MatchProfiler profiler,
+            Matcher<?> previous,
+            Object step,
+            Function<List<Matcher<?>>, Matcher<T>> rebuild
+    ) {
         this.scopeType = scopeType;
         this.matchFunction = matchFunction;
+        this.backtrackingFunction = backtrackingFunction;
+        this.asyncFunction = asyncFunction;
         this.capture = capture;
+        this.length = length;
+        this.budget = budget;
+        this.profiler = profiler;
+        this.previous = previous;
+        this.step = step;
+        this.rebuild = rebuild;
+        this.hashCode = Objects.hash(previous, step, budget, profiler);
+    }
+
+    /**
+     * @return a matcher that bounds each of its top-level evaluations by the given budget.
+     * The budget is ignored when the returned matcher is used as part of another matcher
+     * - it's the outermost evaluation's budget that counts.
+     */
+    public Matcher<T> withBudget(MatchBudget budget) {
+        return new Matcher<>(scopeType, matchFunction, backtrackingFunction, asyncFunction, capture, length, Util.checkNotNull(budget), profiler, previous, step, null);
+    }
+
+    /**
+     * @return a matcher that has (a sample of) its top-level evaluations profiled by the given profiler.
+     * As with budgets, it's the outermost evaluation's profiler that counts.
+     */
+    public Matcher<T> withProfiler(MatchProfiler profiler) {
+        return new Matcher<>(scopeType, matchFunction, backtrackingFunction, asyncFunction, capture, length, budget, Util.checkNotNull(profiler), previous, step, null);
+    }
+
+    /**
+     * @return a matcher evaluated as this one, and promoted once it's been evaluated the given number of times.
+     * The promotion builds a guard of the matcher from its leading tests (e.g. its type test, compared values and properties' matchers),
+     * which rejects most non-matching objects without evaluating the matcher, and so without allocating.
+     * When the guard covers all the steps of the matcher, and they capture nothing, it replaces the matcher:
+     * the objects it accepts are matched without evaluating the matcher either, or mapped directly by the matcher's result
+     * if it's a case of a {@link PatternMatch}. Otherwise, the guard only speeds up rejections: the objects it accepts
+     * are matched by this matcher as before, so the predicates and properties it covers are evaluated twice for them,
+     * and should have no side effects.
+     * <p>
+     * The promotion runs on the given executor, and is published atomically: evaluations never wait for it,
+     * and go on unpromoted until it's done. Only synchronous evaluations (see {@link #match(Object)}) are tiered.
+     * Evaluations bounded by a budget (see {@link #withBudget(MatchBudget)}) or profiled (see {@link #withProfiler(MatchProfiler)})
+     * aren't promoted, so that they take the steps of this matcher, and no others.
+     * The returned matcher isn't equal to this one, and is rebuilt with a promotion of its own by {@link MatcherPool#intern(Matcher)}.
+     */
+    public Matcher<T> tiered(int threshold, Executor executor) {
+        Util.checkArgument(threshold >= 0, "threshold can't be negative");
+        MatchFunction<Object, T> tieredFunction = new TieredMatchFunction<>(this, matchFunction, threshold, Util.checkNotNull(executor));
+        return new Matcher<>(scopeType, tieredFunction, backtrackingFunction, asyncFunction, capture, length, budget, profiler, this, step("tiered", threshold, executor),
+                subMatchers -> Matcher.<T>subMatcher(subMatchers, 0).tiered(threshold, executor));
+    }
+
+    /**
+     * @return whether this is a {@link #tiered(int, Executor)} matcher that's been promoted
+     */
+    boolean isPromoted() {
+        return matchFunction instanceof TieredMatchFunction && ((TieredMatchFunction<?>) matchFunction).isPromoted();
     }
 
     public Matcher<T> capturedAs(Capture<T> capture) {
         if (this.capture != null) {
             throw new IllegalStateException("This matcher already has a capture alias");
         }
-        return flatMap((value, captures) -> createMatch(capture, value, captures));
+        return flatMap(step("capturedAs", capture), "capturedAs", (value, captures, context) -> createMatch(capture, value, captures));
     }
 
     protected static <T> Match<T> createMatch(Capture<T> capture, T matchedValue, Captures captures) {
@@ -68,8 +223,13 @@ public class Matcher<T> {
     }
 
     public Matcher<T> matching(Predicate<? super T> predicate) {
-        return flatMap((value, captures) -> Match.of(value, captures)
-                .filter(predicate));
+        return test(step("matching", predicate), "matching(predicate)", predicate);
+    }
+
+    Matcher<T> test(Object step, String label, Predicate<? super T> predicate) {
+        MatchFunction<T, T> mapper = (value, captures, context) -> predicate.test(value) ? Match.of(value, captures) : Match.empty();
+        return refine(step, label, (value, captures, context) -> predicate.test(value) ? captures : null,
+                BacktrackingFunction.of(mapper), AsyncMatchFunction.of(mapper), subMatchers -> Matcher.<T>subMatcher(subMatchers, 0).test(step, label, predicate));
     }
 
     /**
@@ -93,32 +253,193 @@ public class Matcher<T> {
      * @return
      */
     public <R> Matcher<R> matching(Extractor<T, R> extractor) {
-        return flatMap((value, captures) -> extractor.apply(value, captures)
+        return flatMap(step("matching", extractor), "matching(extractor)", (value, captures, context) -> extractor.apply(value, captures)
                 .map(v -> Match.of(v, captures))
                 .orElse(Match.empty()));
     }
 
+    /**
+     * Like {@link #matching(Extractor)}, for extractors completing asynchronously.
+     * When evaluated with {@link #matchAsync(Object)}, the evaluation continues once the extractor completes.
+     * Other evaluations (e.g. {@link #match(Object)}) don't wait for the extractor: they fail with an IllegalStateException
+     * if it hasn't completed right away. Waiting could deadlock, e.g. on a {@link BatchLoader} lookup whose dispatch
+     * is queued to run on the waiting thread.
+     */
+    public <R> Matcher<R> matchingAsync(AsyncExtractor<T, R> extractor) {
+        MatchFunction<T, R> mapper = (value, captures, context) -> toMatch(completedValue(extractor.apply(value, captures)), captures);
+        return flatMap(step("matchingAsync", extractor), "matchingAsync(extractor)", mapper, BacktrackingFunction.of(mapper),
+                (value, captures, context) -> extractor.apply(value, captures).thenApply(option -> toMatch(option, captures)));
+    }
+
+    private static <V> V completedValue(CompletableFuture<V> future) {
+        if (!future.isDone()) {
+            throw new IllegalStateException("asynchronous extractor hasn't completed, use matchAsync() to wait for it");
+        }
+        return future.join();
+    }
+
+    private static <R> Match<R> toMatch(Option<R> option, Captures captures) {
+        return option.isPresent() ? Match.of(option.value(), captures) : Match.empty();
+    }
+
     public <R> Matcher<R> matching(Matcher<R> matcher) {
-        return flatMap(matcher.matchFunction);
+        return flatMap(step("matching", matcher), "matching", matcher.matchFunction, matcher.backtrackingFunction, matcher.asyncFunction,
+                subMatchers -> Matcher.<T>subMatcher(subMatchers, 0).matching(Matcher.<R>subMatcher(subMatchers, 1)));
     }
 
     public <R> Matcher<T> with(PropertyMatcher<? super T, R> matcher) {
         PropertyMatcher<T, R> castMatcher = PropertyMatcher.upcast(matcher);
-        return this.flatMap((selfMatchValue, captures) -> {
+        Function<T, ?> value = castMatcher.getValue();
+        return refine(step("with", castMatcher.getKey(), castMatcher.getMatcher()), "with(" + castMatcher.getName() + ")", value != null ? (selfMatchValue, captures, context) -> {
+            Match<R> propertyMatch = castMatcher.getMatcher().match(value.apply(selfMatchValue), captures, context);
+            return propertyMatch.isPresent() ? propertyMatch.captures() : null;
+        } : (selfMatchValue, captures, context) -> {
+            //written without Option/Match combinators so that the failure path doesn't allocate
             Option<?> propertyOption = castMatcher.getProperty().apply(selfMatchValue);
-            Match<R> propertyMatch = propertyOption
-                    .map(value -> castMatcher.getMatcher().match(value, captures))
-                    .orElse(Match.empty());
-            return propertyMatch.map(__ -> selfMatchValue);
-        });
+            if (!propertyOption.isPresent()) {
+                return null;
+            }
+            Match<R> propertyMatch = castMatcher.getMatcher().match(propertyOption.value(), captures, context);
+            return propertyMatch.isPresent() ? propertyMatch.captures() : null;
+        }, (selfMatchValue, captures, context) -> {
+            Option<?> propertyOption = castMatcher.getProperty().apply(selfMatchValue);
+            if (!propertyOption.isPresent()) {
+                return Collections.emptyIterator();
+            }
+            Iterator<Match<R>> propertyMatches = castMatcher.getMatcher().allMatches(propertyOption.value(), captures, context);
+            return Iterators.transform(propertyMatches, propertyMatch -> Match.of(selfMatchValue, propertyMatch.captures()));
+        }, (selfMatchValue, captures, context) -> {
+            Option<?> propertyOption = castMatcher.getProperty().apply(selfMatchValue);
+            if (!propertyOption.isPresent()) {
+                return completedFuture(Match.empty());
+            }
+            CompletableFuture<Match<R>> propertyMatch = castMatcher.getMatcher().matchAsync(propertyOption.value(), captures, context);
+            return AsyncMatchFunction.compose(propertyMatch, match -> completedFuture(
+                    match.isPresent() ? Match.of(selfMatchValue, match.captures()) : Match.empty()));
+        }, subMatchers -> Matcher.<T>subMatcher(subMatchers, 0).with(castMatcher.withMatcher(Matcher.<R>subMatcher(subMatchers, 1))));
     }
 
     protected <R> Matcher<R> flatMap(BiFunction<? super T, Captures, Match<R>> mapper) {
-        BiFunction<Object, Captures, Match<R>> newMatchFunction = (object, captures) -> {
-            Match<T> originalMatch = matchFunction.apply(object, captures);
-            return originalMatch.flatMap(value -> mapper.apply(value, originalMatch.captures()));
+        return flatMap("flatMap", MatchFunction.of(mapper));
+    }
+
+    /**
+     * @param label describes the step for profiling purposes
+     */
+    <R> Matcher<R> flatMap(String label, MatchFunction<? super T, R> mapper) {
+        return flatMap(step(label, mapper), label, mapper);
+    }
+
+    private <R> Matcher<R> flatMap(Object step, String label, MatchFunction<? super T, R> mapper) {
+        return flatMap(step, label, mapper, BacktrackingFunction.of(mapper), AsyncMatchFunction.of(mapper));
+    }
+
+    /**
+     * Like {@link #flatMap(Object, String, MatchFunction, BacktrackingFunction, AsyncMatchFunction, Function)}, for steps keeping the matched value.
+     * Synchronous evaluations pass the original match on when the step adds no captures, rather than allocating an equal one.
+     */
+    private Matcher<T> refine(
+            Object step,
+            String label,
+            Refinement<? super T> refinement,
+            BacktrackingFunction<? super T, T> backtrackingMapper,
+            AsyncMatchFunction<? super T, T> asyncMapper,
+            Function<List<Matcher<?>>, Matcher<T>> rebuild
+    ) {
+        String profiledLabel = "[" + (length + 1) + "] " + label;
+        MatchFunction<Object, T> newMatchFunction = (object, captures, context) -> {
+            Match<T> originalMatch = matchFunction.apply(object, captures, context);
+            if (!originalMatch.isPresent() || !context.tryStep()) {
+                return Match.empty();
+            }
+            Captures refinedCaptures = refinement.profiled(profiledLabel, originalMatch.value(), originalMatch.captures(), context);
+            if (refinedCaptures == null) {
+                return Match.empty();
+            }
+            return refinedCaptures == originalMatch.captures() ? originalMatch : Match.of(originalMatch.value(), refinedCaptures);
         };
-        return new Matcher<>(scopeType, newMatchFunction, null);
+        return new Matcher<>(scopeType, newMatchFunction, thenBacktracking(backtrackingMapper), thenAsync(asyncMapper), null, length + 1, null, null, this, step, rebuild);
+    }
+
+    /**
+     * A step keeping the matched value, see {@link #refine(Object, String, Refinement, BacktrackingFunction, AsyncMatchFunction, Function)}.
+     */
+    @FunctionalInterface
+    private interface Refinement<T> {
+
+        /**
+         * @return the captures of the match, or null if the value doesn't match
+         */
+        Captures apply(T value, Captures captures, MatchContext context);
+
+        default Captures profiled(String label, T value, Captures captures, MatchContext context) {
+            StepProfiler profiler = context.getProfiler();
+            if (profiler == null) {
+                return apply(value, captures, context);
+            }
+            profiler.enter(label);
+            try {
+                return apply(value, captures, context);
+            } finally {
+                profiler.exit();
+            }
+        }
+    }
+
+    /**
+     * @param asyncMapper the mapper used by {@link #matchAsync(Object)}
+     */
+    <R> Matcher<R> flatMap(String label, MatchFunction<? super T, R> mapper, AsyncMatchFunction<? super T, R> asyncMapper) {
+        return flatMap(step(label, mapper), label, mapper, BacktrackingFunction.of(mapper), asyncMapper);
+    }
+
+    /**
+     * For steps whose operands aren't matchers, so that they can be applied again as they are to an equal previous matcher.
+     */
+    private <R> Matcher<R> flatMap(
+            Object step,
+            String label,
+            MatchFunction<? super T, R> mapper,
+            BacktrackingFunction<? super T, R> backtrackingMapper,
+            AsyncMatchFunction<? super T, R> asyncMapper
+    ) {
+        return flatMap(step, label, mapper, backtrackingMapper, asyncMapper,
+                subMatchers -> Matcher.<T>subMatcher(subMatchers, 0).flatMap(step, label, mapper, backtrackingMapper, asyncMapper));
+    }
+
+    private <R> Matcher<R> flatMap(
+            Object step,
+            String label,
+            MatchFunction<? super T, R> mapper,
+            BacktrackingFunction<? super T, R> backtrackingMapper,
+            AsyncMatchFunction<? super T, R> asyncMapper,
+            Function<List<Matcher<?>>, Matcher<R>> rebuild
+    ) {
+        MatchFunction<? super T, R> profiledMapper = StepProfiler.profiled("[" + (length + 1) + "] " + label, mapper);
+        MatchFunction<Object, R> newMatchFunction = (object, captures, context) -> {
+            Match<T> originalMatch = matchFunction.apply(object, captures, context);
+            return originalMatch.isPresent() && context.tryStep() ?
+                    profiledMapper.apply(originalMatch.value(), originalMatch.captures(), context) :
+                    Match.empty();
+        };
+        return new Matcher<>(scopeType, newMatchFunction, thenBacktracking(backtrackingMapper), thenAsync(asyncMapper), null, length + 1, null, null, this, step, rebuild);
+    }
+
+    private <R> BacktrackingFunction<Object, R> thenBacktracking(BacktrackingFunction<? super T, R> backtrackingMapper) {
+        return (object, captures, context) -> {
+            Iterator<Match<T>> originalMatches = backtrackingFunction.apply(object, captures, context);
+            return Iterators.concat(Iterators.transform(originalMatches, originalMatch -> context.tryStep() ?
+                    backtrackingMapper.apply(originalMatch.value(), originalMatch.captures(), context) :
+                    Collections.emptyIterator()));
+        };
+    }
+
+    private <R> AsyncMatchFunction<Object, R> thenAsync(AsyncMatchFunction<? super T, R> asyncMapper) {
+        return (object, captures, context) -> AsyncMatchFunction.compose(
+                asyncFunction.apply(object, captures, context),
+                originalMatch -> originalMatch.isPresent() && context.tryStep() ?
+                        asyncMapper.apply(originalMatch.value(), originalMatch.captures(), context) :
+                        completedFuture(Match.empty()));
     }
 
     //Usage of this method within the library's code almost always means an error because of lost captures.
@@ -127,10 +448,228 @@ public class Matcher<T> {
     }
 
     public Match<T> match(Object object, Captures captures) {
-        return matchFunction.apply(object, captures);
+        if (budget == null && profiler == null) {
+            return MatchEvents.match(this, object, captures, MatchContext.unbounded());
+        }
+        return match(object, captures, budget, profiler);
+    }
+
+    /**
+     * @return the match, or {@link Match#exhausted()} if the evaluation exceeded the budget
+     * before a match was found.
+     */
+    public Match<T> match(Object object, MatchBudget budget) {
+        return match(object, Captures.empty(), budget);
+    }
+
+    public Match<T> match(Object object, Captures captures, MatchBudget budget) {
+        return match(object, captures, Util.checkNotNull(budget), profiler);
+    }
+
+    private Match<T> match(Object object, Captures captures, MatchBudget budget, MatchProfiler profiler) {
+        StepProfiler stepProfiler = profiler == null ? null : profiler.sample();
+        if (budget == null && stepProfiler == null) {
+            return MatchEvents.match(this, object, captures, MatchContext.unbounded());
+        }
+        MatchContext context = new MatchContext(budget, stepProfiler);
+        Match<T> match = MatchEvents.match(this, object, captures, context);
+        //a present match is valid even if the budget ran out afterwards, as all its steps were taken
+        return match.isEmpty() && context.isExhausted() ? Match.exhausted() : match;
+    }
+
+    Match<T> match(Object object, Captures captures, MatchContext context) {
+        return matchFunction.apply(object, captures, context);
+    }
+
+    /**
+     * Evaluates the matcher without waiting for {@link #matchingAsync(AsyncExtractor) asynchronous extractors}
+     * to complete: the evaluation continues on whichever thread completes them.
+     * Many evaluations can thus be in flight at once, e.g. letting a {@link BatchLoader}
+     * coalesce their lookups into batches.
+     * <p>
+     * The matcher's budget applies as in {@link #match(Object)}, while profiling applies only to synchronous evaluations.
+     */
+    public CompletableFuture<Match<T>> matchAsync(Object object) {
+        return matchAsync(object, Captures.empty());
+    }
+
+    public CompletableFuture<Match<T>> matchAsync(Object object, Captures captures) {
+        MatchContext context = budget == null ? MatchContext.unbounded() : new MatchContext(budget, null);
+        CompletableFuture<Match<T>> match;
+        try {
+            match = matchAsync(object, captures, context);
+        } catch (RuntimeException e) {
+            return AsyncMatchFunction.failed(e);
+        }
+        return budget == null ? match : match.thenApply(result -> result.isEmpty() && context.isExhausted() ? Match.exhausted() : result);
+    }
+
+    CompletableFuture<Match<T>> matchAsync(Object object, Captures captures, MatchContext context) {
+        return asyncFunction.apply(object, captures, context);
+    }
+
+    /**
+     * @return the values of the matches of the stream's elements, in the elements' order.
+     * The returned stream is parallel if the given one is, and splits as the given one does.
+     */
+    public Stream<T> filter(Stream<?> elements) {
+        return StreamSupport.stream(new MatchingSpliterator<>(this, elements.spliterator()), elements.isParallel())
+                .onClose(elements::close);
+    }
+
+    /**
+     * @return a collector of the values of the matches of the collected elements, in the elements' order.
+     * Each worker of a parallel stream collects its own elements, the results are concatenated as the workers finish.
+     */
+    public Collector<Object, ?, List<T>> collector() {
+        return Collector.<Object, List<T>>of(
+                ArrayList::new,
+                (values, element) -> {
+                    Match<T> match = match(element);
+                    if (match.isPresent()) {
+                        values.add(match.value());
+                    }
+                },
+                (left, right) -> {
+                    left.addAll(right);
+                    return left;
+                });
+    }
+
+    /**
+     * Unlike {@link #match(Object)}, which commits to the first matching element of a
+     * list-valued property, this enumerates all consistent matches, backtracking
+     * to the next element whenever a later condition fails for the current one.
+     * <p>
+     * The matches are computed lazily, as the returned iterator is advanced.
+     * If the matcher has a budget and it gets exceeded, the iteration ends with {@link Match#exhausted()}.
+     */
+    public Iterator<Match<T>> allMatches(Object object) {
+        return allMatches(object, Captures.empty());
+    }
+
+    public Iterator<Match<T>> allMatches(Object object, Captures captures) {
+        MatchContext context = new MatchContext(budget, null);
+        Iterator<Match<T>> matches = backtrackingFunction.apply(object, captures, context);
+        if (budget == null) {
+            return matches;
+        }
+        Iterator<Match<T>> exhaustion = new AbstractIterator<Match<T>>() {
+
+            private boolean reported;
+
+            @Override
+            protected Match<T> computeNext() {
+                if (context.isExhausted() && !reported) {
+                    reported = true;
+                    return Match.exhausted();
+                }
+                return endOfData();
+            }
+        };
+        return Iterators.concat(matches, exhaustion);
+    }
+
+    Iterator<Match<T>> allMatches(Object object, Captures captures, MatchContext context) {
+        return backtrackingFunction.apply(object, captures, context);
     }
 
     Class<?> getScopeType() {
         return scopeType;
     }
+
+    /**
+     * @return the matcher this one was built from, null for root matchers like {@link #typeOf(Class)}
+     */
+    Matcher<?> getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return the label of the step building this matcher, e.g. "typeOf" or "matching"
+     */
+    String getStepLabel() {
+        return (String) ((List<?>) step).get(0);
+    }
+
+    /**
+     * @return the arguments of the step building this matcher, e.g. the class tested by {@link #typeOf(Class)}
+     */
+    List<?> getStepOperands() {
+        List<?> step = (List<?>) this.step;
+        return step.subList(1, step.size());
+    }
+
+    /**
+     * @return the matcher this one was built from (if any) and the matchers its last step applies
+     */
+    List<Matcher<?>> getSubMatchers() {
+        List<Matcher<?>> subMatchers = new ArrayList<>();
+        if (previous != null) {
+            subMatchers.add(previous);
+        }
+        for (Object operand : (List<?>) step) {
+            if (operand instanceof Matcher) {
+                subMatchers.add((Matcher<?>) operand);
+            }
+        }
+        return subMatchers;
+    }
+
+    /**
+     * @return a matcher built the same way as this one, but from the given sub-matchers, equal to this one's (see {@link #getSubMatchers()}).
+     * This matcher if they're the same, or if it can't be rebuilt (e.g. it has a budget or a profiler).
+     */
+    Matcher<T> rebuild(List<Matcher<?>> subMatchers) {
+        if (rebuild == null) {
+            return this;
+        }
+        List<Matcher<?>> ownSubMatchers = getSubMatchers();
+        for (int i = 0; i < ownSubMatchers.size(); i++) {
+            if (ownSubMatchers.get(i) != subMatchers.get(i)) {
+                return rebuild.apply(subMatchers);
+            }
+        }
+        return this;
+    }
+
+    @SuppressWarnings("unchecked cast")
+    //the sub-matchers given to rebuild() are equal to the matcher's own, so they match values of the same types
+    static <T> Matcher<T> subMatcher(List<Matcher<?>> subMatchers, int index) {
+        return (Matcher<T>) subMatchers.get(index);
+    }
+
+    static Object step(Object... labelAndOperands) {
+        return Collections.unmodifiableList(Arrays.asList(labelAndOperands));
+    }
+
+    /**
+     * Matchers are equal if they are built the same way: by the same combinators, applied in the same order,
+     * with equal arguments. Classes, captures and values compared to (see {@link #equalTo(Object)}) are compared by their equals(),
+     * sub-matchers structurally, while predicates, extractors and properties are compared by identity,
+     * so that matchers built from the same (e.g. constant) predicate and property instances are equal.
+     * Matchers are only equal if they have the same budget and profiler, too.
+     * <p>
+     * Equal matchers match the same objects the same way, so they can be shared (see {@link MatcherPool}).
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Matcher)) {
+            return false;
+        }
+        Matcher<?> matcher = (Matcher<?>) o;
+        return hashCode == matcher.hashCode
+                && budget == matcher.budget
+                && profiler == matcher.profiler
+                && step.equals(matcher.step)
+                && Objects.equals(previous, matcher.previous);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
 }
@@ -0,0 +1,56 @@
+package rocks.matchmaker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns (hash-conses) matchers: for all the equal matchers (see {@link Matcher#equals(Object)}) it's given,
+ * it returns the same, first interned instance.
+ * <p>
+ * Interning a matcher interns the matchers it's built of first, bottom-up, and rebuilds it from the interned ones.
+ * Thus identical sub-patterns of different rules become the same object: only one copy is kept
+ * in memory and evaluations keyed by matcher identity (e.g. memoized list element matches
+ * in {@link Matcher#allMatches(Object)}) are shared. Matchers with a budget or a profiler, tiered matchers
+ * and ones built from bare functions are interned as they are, keeping their own sub-matchers.
+ * <p>
+ * The pool keeps all interned matchers reachable. It's thread-safe.
+ */
+public final class MatcherPool {
+
+    private final ConcurrentHashMap<Matcher<?>, Matcher<?>> matchers = new ConcurrentHashMap<>();
+
+    private MatcherPool() {
+    }
+
+    public static MatcherPool create() {
+        return new MatcherPool();
+    }
+
+    /**
+     * @return the interned matcher equal to the given one
+     */
+    @SuppressWarnings("unchecked cast")
+    //equal matchers are built the same way, so they match values of the same type
+    public <T> Matcher<T> intern(Matcher<T> matcher) {
+        Matcher<?> interned = matchers.get(matcher);
+        if (interned != null) {
+            return (Matcher<T>) interned;
+        }
+        List<Matcher<?>> subMatchers = matcher.getSubMatchers();
+        List<Matcher<?>> internedSubMatchers = new ArrayList<>(subMatchers.size());
+        for (Matcher<?> subMatcher : subMatchers) {
+            internedSubMatchers.add(intern(subMatcher));
+        }
+        Matcher<T> rebuilt = matcher.rebuild(internedSubMatchers);
+        interned = matchers.putIfAbsent(rebuilt, rebuilt);
+        return interned == null ? rebuilt : (Matcher<T>) interned;
+    }
+
+    /**
+     * @return the number of distinct matchers interned
+     */
+    public int size() {
+        return matchers.size();
+    }
+}
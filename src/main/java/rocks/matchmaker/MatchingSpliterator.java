@@ -0,0 +1,67 @@
+package rocks.matchmaker;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The values of a matcher's matches of the elements of another spliterator, see {@link Matcher#filter(java.util.stream.Stream)}.
+ * Splits as the elements' spliterator does, so that parallel streams of matches split as well as the elements.
+ * Non-matching elements are skipped without allocating.
+ */
+final class MatchingSpliterator<T> implements Spliterator<T> {
+
+    private final Matcher<T> matcher;
+    private final Spliterator<?> elements;
+    //the match of the element last advanced to by tryAdvance()
+    private Match<T> match;
+    private final Consumer<Object> matchElement;
+
+    MatchingSpliterator(Matcher<T> matcher, Spliterator<?> elements) {
+        this.matcher = matcher;
+        this.elements = elements;
+        this.matchElement = element -> match = matcher.match(element);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        do {
+            if (!elements.tryAdvance(matchElement)) {
+                return false;
+            }
+        } while (match.isEmpty());
+        T value = match.value();
+        match = null;
+        action.accept(value);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        elements.forEachRemaining(element -> {
+            Match<T> elementMatch = matcher.match(element);
+            if (elementMatch.isPresent()) {
+                action.accept(elementMatch.value());
+            }
+        });
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        Spliterator<?> prefix = elements.trySplit();
+        return prefix == null ? null : new MatchingSpliterator<>(matcher, prefix);
+    }
+
+    /**
+     * @return the estimated number of remaining elements, an upper bound of the number of remaining matches
+     */
+    @Override
+    public long estimateSize() {
+        return elements.estimateSize();
+    }
+
+    //matching keeps the elements' order, but not their size or their values' other properties
+    @Override
+    public int characteristics() {
+        return elements.characteristics() & (ORDERED | IMMUTABLE | CONCURRENT);
+    }
+}
@@ -1,77 +1,264 @@
 package rocks.matchmaker;
 
-import com.google.common.collect.SortedSetMultimap;
+import rocks.matchmaker.MatchMetrics.CaseMetrics;
 import rocks.matchmaker.util.Indexed;
-import rocks.matchmaker.util.Util;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.BiFunction;
-import java.util.stream.Stream;
-
-import static com.google.common.collect.Multimaps.newSortedSetMultimap;
-import static java.util.stream.Collectors.toCollection;
-import static java.util.stream.Collectors.toList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static rocks.matchmaker.Matcher.createMatch;
 
 public class MultiMatcherMatchFunctions {
 
-    static <R> BiFunction<Object, Captures, Match<R>> returnFirst(List<Matcher<R>> cases) {
-        SortedSetMultimap<Class<?>, Indexed<Matcher<R>>> matchersByScopeType = indexByScopeType(cases);
-        return (object, captures) -> {
-            Stream<Match<R>> successfulCases = successfulCases(cases, matchersByScopeType, object);
-            return successfulCases.findFirst().orElse(Match.empty());
+    //The synchronous functions are loops rather than streams, so that they don't allocate beyond what the cases do.
+    static <R> MatchFunction<Object, R> returnFirst(CaseDispatch<R> dispatch, MatchMetrics metrics) {
+        CaseEvaluator evaluator = CaseEvaluator.of(dispatch, metrics);
+        return (object, captures, context) -> {
+            List<Indexed<Matcher<R>>> candidates = evaluator.candidates(dispatch, object);
+            for (int i = 0; i < candidates.size(); i++) {
+                Match<R> match = evaluateCase(evaluator, candidates.get(i), object, candidates.size(), context);
+                if (match.isPresent()) {
+                    return match;
+                }
+            }
+            return Match.empty();
         };
     }
 
-    static <R> BiFunction<Object, Captures, Match<List<R>>> returnAll(List<Matcher<R>> cases) {
-        SortedSetMultimap<Class<?>, Indexed<Matcher<R>>> matchersByScopeType = indexByScopeType(cases);
-        return (object, captures) -> {
-            Stream<Match<R>> successfulCases = successfulCases(cases, matchersByScopeType, object);
+    static <R> MatchFunction<Object, List<R>> returnAll(CaseDispatch<R> dispatch, MatchMetrics metrics) {
+        CaseEvaluator evaluator = CaseEvaluator.of(dispatch, metrics);
+        return (object, captures, context) -> {
+            List<Indexed<Matcher<R>>> candidates = evaluator.candidates(dispatch, object);
             //TODO we're losing captures here
-            List<R> allMatches = successfulCases.map(Match::value).collect(toList());
-            return Match.of(allMatches, captures)
-                    .filter(matches -> !matches.isEmpty())
-                    .flatMap(value -> createMatch(null, allMatches, captures));
+            List<R> allMatches = null;
+            for (int i = 0; i < candidates.size(); i++) {
+                Match<R> match = evaluateCase(evaluator, candidates.get(i), object, candidates.size(), context);
+                if (match.isPresent()) {
+                    if (allMatches == null) {
+                        allMatches = new ArrayList<>();
+                    }
+                    allMatches.add(match.value());
+                }
+            }
+            return allMatches == null ? Match.empty() : createMatch(null, allMatches, captures);
         };
     }
 
-    private static <R> SortedSetMultimap<Class<?>, Indexed<Matcher<R>>> indexByScopeType(List<Matcher<R>> cases) {
-        SortedSetMultimap<Class<?>, Indexed<Matcher<R>>> matchersByScopeType =
-                newSortedSetMultimap(new HashMap<>(), TreeSet::new);
-        AtomicInteger i = new AtomicInteger();
-        Stream<Indexed<Matcher<R>>> indexedMatchers = cases.stream().map(c -> Indexed.at(i.getAndIncrement(), c));
-        indexedMatchers.forEach(matcher -> matchersByScopeType.put(matcher.value().getScopeType(), matcher));
-        return matchersByScopeType;
+    /**
+     * Branch and bound: the candidates are evaluated in the order of their cost lower bounds, and the evaluation stops
+     * at the first candidate whose bound isn't below the cost of the best match so far, as neither it nor the candidates after it can beat it.
+     */
+    static <R> MatchFunction<Object, R> returnBest(
+            CaseDispatch<R> dispatch,
+            double[] costLowerBounds,
+            ToDoubleFunction<? super R> costFunction,
+            MatchMetrics metrics
+    ) {
+        CaseEvaluator evaluator = CaseEvaluator.of(dispatch, metrics);
+        BoundOrder<R> boundOrder = new BoundOrder<>(costLowerBounds);
+        return (object, captures, context) -> {
+            List<Indexed<Matcher<R>>> candidates = boundOrder.of(object, evaluator.candidates(dispatch, object));
+            Match<R> best = Match.empty();
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < candidates.size(); i++) {
+                Indexed<Matcher<R>> candidate = candidates.get(i);
+                double costLowerBound = boundOrder.bound(candidate);
+                if (best.isPresent() && costLowerBound >= bestCost) {
+                    break;
+                }
+                Match<R> match = evaluateCase(evaluator, candidate, object, candidates.size(), context);
+                if (match.isPresent()) {
+                    double cost = cost(candidate, costLowerBound, match, costFunction);
+                    if (best.isEmpty() || cost < bestCost) {
+                        best = match;
+                        bestCost = cost;
+                    }
+                }
+            }
+            return best;
+        };
     }
 
-    private static <R> Stream<Match<R>> successfulCases(
-            List<Matcher<R>> cases,
-            SortedSetMultimap<Class<?>, Indexed<Matcher<R>>> matchersByScopeType,
-            Object object
-    ) {
-        Stream<Matcher<R>> potentialMatchersInOrder = potentialMatchersInOrder(cases, matchersByScopeType, object);
-        Stream<Match<R>> caseResults = potentialMatchersInOrder
-                .map(matcher -> matcher.match(object));
-        return caseResults.filter(Match::isPresent);
+    static <R> AsyncMatchFunction<Object, R> returnBestAsync(CaseDispatch<R> dispatch, double[] costLowerBounds, ToDoubleFunction<? super R> costFunction) {
+        BoundOrder<R> boundOrder = new BoundOrder<>(costLowerBounds);
+        return (object, captures, context) -> {
+            BestMatch<R> best = new BestMatch<>();
+            CompletableFuture<?> result = completedFuture(null);
+            for (Indexed<Matcher<R>> candidate : boundOrder.of(object, dispatch.candidates(object))) {
+                double costLowerBound = boundOrder.bound(candidate);
+                result = AsyncMatchFunction.compose(result, __ -> best.prunes(costLowerBound) ?
+                        completedFuture(null) :
+                        candidate.value().matchAsync(object, Captures.empty(), context)
+                                .thenAccept(match -> best.offer(match, candidate, costLowerBound, costFunction)));
+            }
+            return result.thenApply(__ -> best.match);
+        };
+    }
+
+    private static final class BestMatch<R> {
+
+        private Match<R> match = Match.empty();
+        private double cost = Double.POSITIVE_INFINITY;
+
+        private boolean prunes(double costLowerBound) {
+            return match.isPresent() && costLowerBound >= cost;
+        }
+
+        private void offer(Match<R> candidateMatch, Indexed<Matcher<R>> candidate, double costLowerBound, ToDoubleFunction<? super R> costFunction) {
+            if (candidateMatch.isPresent()) {
+                double candidateCost = cost(candidate, costLowerBound, candidateMatch, costFunction);
+                if (match.isEmpty() || candidateCost < cost) {
+                    match = candidateMatch;
+                    cost = candidateCost;
+                }
+            }
+        }
+    }
+
+    private static <R> double cost(Indexed<Matcher<R>> candidate, double costLowerBound, Match<R> match, ToDoubleFunction<? super R> costFunction) {
+        double cost = costFunction.applyAsDouble(match.value());
+        if (cost < costLowerBound) {
+            throw new IllegalStateException(format("Case %s costs %s, below its declared lower bound %s", candidate.index(), cost, costLowerBound));
+        }
+        return cost;
     }
 
-    private static <R> Stream<Matcher<R>> potentialMatchersInOrder(
-            List<Matcher<R>> cases,
-            SortedSetMultimap<Class<?>, Indexed<Matcher<R>>> matchersByScopeType,
-            Object object
+    //Cases are evaluated one after another, so that the evaluation's context isn't accessed concurrently.
+    static <R> AsyncMatchFunction<Object, R> returnFirstAsync(CaseDispatch<R> dispatch) {
+        return (object, captures, context) -> {
+            CompletableFuture<Match<R>> result = completedFuture(Match.empty());
+            for (Indexed<Matcher<R>> matcher : dispatch.candidates(object)) {
+                result = AsyncMatchFunction.compose(result, match -> match.isPresent() ?
+                        completedFuture(match) :
+                        matcher.value().matchAsync(object, Captures.empty(), context));
+            }
+            return result;
+        };
+    }
+
+    static <R> AsyncMatchFunction<Object, List<R>> returnAllAsync(CaseDispatch<R> dispatch) {
+        return (object, captures, context) -> {
+            List<R> allMatches = new ArrayList<>();
+            CompletableFuture<?> result = completedFuture(null);
+            for (Indexed<Matcher<R>> matcher : dispatch.candidates(object)) {
+                result = AsyncMatchFunction.compose(result, __ -> matcher.value().matchAsync(object, Captures.empty(), context)
+                        .thenApply(match -> match.isPresent() && allMatches.add(match.value())));
+            }
+            return result.thenApply(__ -> allMatches.isEmpty() ? Match.empty() : createMatch(null, allMatches, captures));
+        };
+    }
+
+    /**
+     * Orders candidate lists by the candidates' cost lower bounds, and then by index. Cases without a declared bound come first,
+     * as they can't be pruned. The orders of the dispatch's per-class candidate lists are cached per class.
+     */
+    private static final class BoundOrder<R> {
+
+        private final double[] costLowerBounds;
+        private final Comparator<Indexed<Matcher<R>>> order;
+        //per class of matched objects, its candidates in case order and in bound order
+        private final ConcurrentHashMap<Class<?>, List<List<Indexed<Matcher<R>>>>> ordered = new ConcurrentHashMap<>();
+
+        private BoundOrder(double[] costLowerBounds) {
+            this.costLowerBounds = costLowerBounds;
+            this.order = Comparator.<Indexed<Matcher<R>>>comparingDouble(this::bound).thenComparingInt(Indexed::index);
+        }
+
+        double bound(Indexed<Matcher<R>> candidate) {
+            return candidate.index() < costLowerBounds.length ? costLowerBounds[candidate.index()] : Double.NEGATIVE_INFINITY;
+        }
+
+        List<Indexed<Matcher<R>>> of(Object object, List<Indexed<Matcher<R>>> candidates) {
+            if (object == null) {
+                return sorted(candidates);
+            }
+            List<List<Indexed<Matcher<R>>>> cached = ordered.get(object.getClass());
+            //candidates narrowed down by the object's value rather than its class (see StringCases) aren't the cached ones
+            if (cached != null && cached.get(0) == candidates) {
+                return cached.get(1);
+            }
+            List<Indexed<Matcher<R>>> sorted = sorted(candidates);
+            ordered.putIfAbsent(object.getClass(), asList(candidates, sorted));
+            return sorted;
+        }
+
+        private List<Indexed<Matcher<R>>> sorted(List<Indexed<Matcher<R>>> candidates) {
+            List<Indexed<Matcher<R>>> sorted = new ArrayList<>(candidates);
+            sorted.sort(order);
+            return sorted;
+        }
+    }
+
+    private static <R> Match<R> evaluateCase(
+            CaseEvaluator evaluator,
+            Indexed<Matcher<R>> matcher,
+            Object object,
+            int candidates,
+            MatchContext context
     ) {
-        if (object == null) {
-            return cases.stream();
-        } else {
-            Stream<Class<?>> supertypes = Util.supertypes(object.getClass());
-            TreeSet<Indexed<Matcher<R>>> indexedMatchersInOrder = supertypes
-                    .flatMap(type -> matchersByScopeType.get(type).stream())
-                    .collect(toCollection(TreeSet::new));
-            return indexedMatchersInOrder.stream()
-                    .map(Indexed::value);
+        StepProfiler profiler = context.getProfiler();
+        if (profiler != null) {
+            profiler.enter("case[" + matcher.index() + "]");
+        }
+        try {
+            return evaluator.evaluate(matcher, object, candidates, context);
+        } finally {
+            if (profiler != null) {
+                profiler.exit();
+            }
+        }
+    }
+
+    /**
+     * Looks up and evaluates the candidate cases, recording them in the pattern match's metrics, if any.
+     * Chosen once per match function, so that functions without metrics don't check for them.
+     */
+    private static class CaseEvaluator {
+
+        private static final CaseEvaluator PLAIN = new CaseEvaluator();
+
+        static CaseEvaluator of(CaseDispatch<?> dispatch, MatchMetrics metrics) {
+            return metrics == null ? PLAIN : new InstrumentedCaseEvaluator(metrics, metrics.forCases(dispatch.indexBound()));
+        }
+
+        <R> List<Indexed<Matcher<R>>> candidates(CaseDispatch<R> dispatch, Object object) {
+            return dispatch.candidates(object);
+        }
+
+        <R> Match<R> evaluate(Indexed<Matcher<R>> matcher, Object object, int candidates, MatchContext context) {
+            return MatchEvents.evaluateCase(matcher.index(), matcher.value(), object, candidates, context);
+        }
+    }
+
+    private static final class InstrumentedCaseEvaluator extends CaseEvaluator {
+
+        private final MatchMetrics metrics;
+        private final CaseMetrics[] caseMetrics;
+
+        private InstrumentedCaseEvaluator(MatchMetrics metrics, CaseMetrics[] caseMetrics) {
+            this.metrics = metrics;
+            this.caseMetrics = caseMetrics;
+        }
+
+        @Override
+        <R> List<Indexed<Matcher<R>>> candidates(CaseDispatch<R> dispatch, Object object) {
+            List<Indexed<Matcher<R>>> candidates = dispatch.candidates(object);
+            if (object != null) {
+                metrics.recordCandidates(object.getClass(), candidates.size());
+            }
+            return candidates;
+        }
+
+        @Override
+        <R> Match<R> evaluate(Indexed<Matcher<R>> matcher, Object object, int candidates, MatchContext context) {
+            return metrics.evaluateCase(caseMetrics[matcher.index()], matcher.index(), matcher.value(), object, candidates, context);
         }
     }
 }
@@ -6,6 +6,8 @@ import java.util.function.Predicate;
 
 public abstract class Option<T> {
 
+    private static final Option<?> EMPTY = new Empty<>();
+
     public abstract boolean isPresent();
 
     public abstract T value();
@@ -14,8 +16,9 @@ public abstract class Option<T> {
         return new Present<>(value);
     }
 
+    @SuppressWarnings("unchecked cast")
     public static <S> Option<S> empty() {
-        return new Empty<>();
+        return (Option<S>) EMPTY;
     }
 
     public abstract Option<T> filter(Predicate<T> predicate);
@@ -1,12 +1,18 @@
 package rocks.matchmaker;
 
+import rocks.matchmaker.util.Util;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 
-import static rocks.matchmaker.Matcher.nullable;
+import static java.util.stream.Collectors.toList;
 import static rocks.matchmaker.Matcher.typeOf;
 
 public class PatternMatch<T, R> {
@@ -15,6 +21,11 @@ public class PatternMatch<T, R> {
     private Class<R> caseResultType;
 
     private List<Matcher<R>> cases = new ArrayList<>();
+    private List<Double> costLowerBounds = new ArrayList<>();
+    private MatchMetrics metrics;
+    private int tieringThreshold;
+    private Executor tieringExecutor;
+    private boolean exhaustive;
 
     private PatternMatch(Class<T> matcherResultType, Class<R> caseResultType) {
         this.matcherResultType = matcherResultType;
@@ -36,23 +47,125 @@ public class PatternMatch<T, R> {
     public Case<T, R> caseOf(Matcher<? extends T> matcher) {
         return new Case<T, R> (){
 
+            private double costLowerBound = Double.NEGATIVE_INFINITY;
+
+            @Override
+            public Case<T, R> withCostAtLeast(double costLowerBound) {
+                Util.checkArgument(!Double.isNaN(costLowerBound), "costLowerBound can't be NaN");
+                this.costLowerBound = costLowerBound;
+                return this;
+            }
+
             @Override
             public PatternMatch<T, R> returns(Function<T, R> result) {
                 //TODO rewrite this so that immutable objects are used
-                //TODO: replace with matcher.map(result)
-                Matcher<R> resultMatcher = matcher.flatMap((match, captures) -> Match.of(result.apply(match), captures));
-                PatternMatch.this.cases.add(resultMatcher);
+                PatternMatch.this.cases.add(caseMatcher(matcher, result));
+                PatternMatch.this.costLowerBounds.add(costLowerBound);
                 return PatternMatch.this;
             }
         };
     }
 
+    //TODO: replace with matcher.map(result)
+    static <T, R> Matcher<R> caseMatcher(Matcher<? extends T> matcher, Function<T, R> result) {
+        return matcher.flatMap("returns", (match, captures, context) -> Match.of(result.apply(match), captures));
+    }
+
+    //case matchers are patterns followed by a step computing the case's result, and may have been tiered (see withTiering())
+    static Matcher<?> pattern(Matcher<?> caseMatcher) {
+        Matcher<?> untiered = caseMatcher.getStepLabel().equals("tiered") ? caseMatcher.getPrevious() : caseMatcher;
+        return untiered.getStepLabel().equals("returns") ? untiered.getPrevious() : untiered;
+    }
+
+    /**
+     * Makes the cases of the matchers subsequently returned by {@link #returnFirst()}, {@link #returningAll()}
+     * and {@link #compile()}d pattern matches {@link Matcher#tiered(int, Executor)}: each case is promoted on its own,
+     * once it's been evaluated the given number of times, so that only the frequently evaluated cases are replaced, or pre-filtered, by a guard.
+     * Rules later added to a {@link RuleSet} aren't tiered.
+     */
+    public PatternMatch<T, R> withTiering(int threshold, Executor executor) {
+        Util.checkArgument(threshold >= 0, "threshold can't be negative");
+        this.tieringThreshold = threshold;
+        this.tieringExecutor = Util.checkNotNull(executor);
+        return this;
+    }
+
+    /**
+     * Makes the matchers subsequently returned by {@link #returnFirst()}, {@link #returningAll()}
+     * and {@link #compile()}d pattern matches record their case evaluations in the given metrics.
+     * Asynchronous evaluations (see {@link Matcher#matchAsync(Object)}) aren't recorded.
+     * @throws IllegalArgumentException if the metrics already record another pattern match's cases
+     */
+    public PatternMatch<T, R> withMetrics(MatchMetrics metrics) {
+        if (metrics != null) {
+            metrics.recordCasesOf(this);
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Makes the matchers subsequently returned by {@link #returnFirst()}, {@link #returningAll()}
+     * and {@link #compile()} check that the cases cover all the classes of the sealed hierarchy of this pattern match's type,
+     * i.e. that for every class there's at least one case with a scope type applicable to it.
+     * Note that the coverage check is based on scope types only: cases with further conditions count as covering, too.
+     * It runs when the matchers are built, at runtime: unlike a switch over a sealed type, missing cases aren't compile errors.
+     * <p>
+     * The hierarchy must be closed, i.e. consist of sealed (on Java 17+) and final classes only.
+     */
+    public PatternMatch<T, R> exhaustive() {
+        this.exhaustive = true;
+        return this;
+    }
+
+    /**
+     * @return an immutable, thread-safe snapshot of the cases defined so far, with its indices built once.
+     * Later changes to this pattern match don't affect it.
+     * Cases that can never be the first matching one are reported, and skipped by its {@code returnFirst()} matcher.
+     */
+    public CompiledPatternMatch<T, R> compile() {
+        return new CompiledPatternMatch<>(
+                matcherResultType,
+                tieringExecutor == null ? cases : cases.stream().map(c -> c.tiered(tieringThreshold, tieringExecutor)).collect(toList()),
+                costLowerBounds.stream().mapToDouble(Double::doubleValue).toArray(),
+                metrics,
+                exhaustive);
+    }
+
+    /**
+     * @return a rule set starting with the cases defined so far, which can then be added, removed and replaced
+     * while its matchers are in use. The metrics and exhaustiveness settings carry over.
+     */
+    public RuleSet<T, R> toRuleSet() {
+        return new RuleSet<>(compile(), metrics, exhaustive);
+    }
+
+    /**
+     * Shorthand for {@code compile().returnFirst()}. Prefer compiling once when the matcher is needed repeatedly.
+     */
     public Matcher<R> returnFirst() {
-        return nullable(Object.class).flatMap(MultiMatcherMatchFunctions.returnFirst(cases));
+        return compile().returnFirst();
     }
 
+    /**
+     * Shorthand for {@code compile().returningAll()}. Prefer compiling once when the matcher is needed repeatedly.
+     */
     public Matcher<List<R>> returningAll() {
-        return nullable(Object.class).flatMap(MultiMatcherMatchFunctions.returnAll(cases));
+        return compile().returningAll();
+    }
+
+    /**
+     * Shorthand for {@code compile().returnBest(costFunction)}. Prefer compiling once when the matcher is needed repeatedly.
+     */
+    public Matcher<R> returnBest(ToDoubleFunction<? super R> costFunction) {
+        return compile().returnBest(costFunction);
+    }
+
+    /**
+     * Shorthand for {@code compile().classify(elements)}.
+     */
+    public <E extends T> Map<R, List<E>> classify(Spliterator<E> elements) {
+        return compile().classify(elements);
     }
 
     public interface Case<T, R> {
@@ -61,6 +174,13 @@ public class PatternMatch<T, R> {
             return returns(__ -> result.get());
         }
 
+        /**
+         * Declares that the case's results cost at least the given amount, as computed by the cost function of
+         * {@link #returnBest(ToDoubleFunction)}, so that the case is skipped when a case with a lower cost already matched.
+         * Cases without a declared bound are never skipped.
+         */
+        Case<T, R> withCostAtLeast(double costLowerBound);
+
         PatternMatch<T, R> returns(Function<T, R> result);
     }
 }
@@ -1,5 +1,8 @@
 package rocks.matchmaker;
 
+import rocks.matchmaker.util.Util;
+
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -18,10 +21,100 @@ public interface Property<F, T> {
         };
     }
 
+    /**
+     * A property reading an instance field of the type or of one of its superclasses, made accessible if it's private.
+     * Unlike {@link #property(Function)}, the value is read through a method handle, and passed on without wrapping it,
+     * which spares an allocation and a megamorphic lambda call on every match. Like with {@link #property(Function)},
+     * null values are passed on as well, for the property's matcher to reject or accept (see {@link Matcher#nullable(Class)}).
+     * @throws IllegalArgumentException if there's no such field, or if it can't be made accessible
+     */
+    static <F, T> Property<F, T> field(Class<F> type, String name) {
+        return PropertyAccessor.field(type, name).toProperty();
+    }
+
+    /**
+     * A property calling a public getter of the type: a method without parameters. Read like {@link #field(Class, String)}.
+     * @throws IllegalArgumentException if there's no such method, or if it can't be made accessible
+     */
+    static <F, T> Property<F, T> getter(Class<F> type, String name) {
+        return PropertyAccessor.getter(type, name).toProperty();
+    }
+
     static <T> Property<T, T> self() {
         return property(Function.identity());
     }
 
+    /**
+     * Matches if at least one element of the list matches. Elements are tried in order
+     * and the captures of the first matching element are the ones bound.
+     * When matched using {@link Matcher#allMatches(Object)}, each matching element is an alternative.
+     */
+    static <F, T> Property<F, T> anyElement(Function<F, ? extends List<T>> list) {
+        Function<F, Option<List<T>>> listOption = source -> Option.of(list.apply(source));
+        return new Property<F, T>() {
+            @Override
+            public <R> PropertyMatcher<F, R> matching(Matcher<R> matcher) {
+                Matcher<R> anyElementMatcher = new Matcher<>(
+                        List.class,
+                        ElementMatchFunctions.anyElement(matcher),
+                        ElementMatchFunctions.anyElementAlternatives(matcher),
+                        ElementMatchFunctions.anyElementAsync(matcher),
+                        null,
+                        Matcher.step("anyElement", matcher),
+                        subMatchers -> matching(Matcher.<R>subMatcher(subMatchers, 0)).getMatcher());
+                return PropertyMatcher.ofValue("anyElement", listOption, list, anyElementMatcher);
+            }
+        };
+    }
+
+    /**
+     * Matches if all elements of the list match (in particular: if the list is empty).
+     * Captures of all the elements are bound. The value of the match is the one
+     * of the last element's match (null for an empty list).
+     */
+    static <F, T> Property<F, T> everyElement(Function<F, ? extends List<T>> list) {
+        Function<F, Option<List<T>>> listOption = source -> Option.of(list.apply(source));
+        return new Property<F, T>() {
+            @Override
+            public <R> PropertyMatcher<F, R> matching(Matcher<R> matcher) {
+                Matcher<R> everyElementMatcher = new Matcher<>(
+                        List.class,
+                        ElementMatchFunctions.everyElement(matcher),
+                        ElementMatchFunctions.everyElementAlternatives(matcher),
+                        ElementMatchFunctions.everyElementAsync(matcher),
+                        null,
+                        Matcher.step("everyElement", matcher),
+                        subMatchers -> matching(Matcher.<R>subMatcher(subMatchers, 0)).getMatcher());
+                return PropertyMatcher.ofValue("everyElement", listOption, list, everyElementMatcher);
+            }
+        };
+    }
+
+    static <F, T> Property<F, T> elementAt(Function<F, ? extends List<T>> list, int index) {
+        Util.checkArgument(index >= 0, "index can't be negative");
+        return Property.<F, T>optionalProperty(source -> {
+            List<T> elements = list.apply(source);
+            return index < elements.size() ? Option.of(elements.get(index)) : Option.empty();
+        }).named("elementAt(" + index + ")");
+    }
+
+    static <F> Property<F, Integer> size(Function<F, ? extends List<?>> list) {
+        return Property.<F, Integer>property(source -> list.apply(source).size()).named("size");
+    }
+
+    /**
+     * @return this property with a human-readable name, used e.g. to label profiled steps
+     */
+    default Property<F, T> named(String name) {
+        Property<F, T> property = this;
+        return new Property<F, T>() {
+            @Override
+            public <R> PropertyMatcher<F, R> matching(Matcher<R> matcher) {
+                return property.matching(matcher).named(name);
+            }
+        };
+    }
+
     default PropertyMatcher<F, T> capturedAs(Capture<T> capture) {
         Matcher<T> matchAll = (Matcher<T>) Matcher.any();
         return matching(matchAll.capturedAs(capture));
@@ -51,5 +144,13 @@ public interface Property<F, T> {
         return matching(matchAll.matching(extractor));
     }
 
+    @SuppressWarnings("unchecked cast")
+    //the `matchAll` matcher will only ever be passed the return values matching
+    //the `property` function.
+    default <R> PropertyMatcher<F, R> matchingAsync(AsyncExtractor<T, R> extractor) {
+        Matcher<T> matchAll = (Matcher<T>) Matcher.any();
+        return matching(matchAll.matchingAsync(extractor));
+    }
+
     <R> PropertyMatcher<F, R> matching(Matcher<R> matcher);
 }
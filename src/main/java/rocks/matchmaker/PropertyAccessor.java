@@ -0,0 +1,126 @@
+package rocks.matchmaker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+
+/**
+ * Reads a field or calls a getter through a method handle, for {@link Property#field(Class, String)}
+ * and {@link Property#getter(Class, String)}. The handle is adapted to {@code (Object)Object} once,
+ * so that it's invoked exactly, without per-call type adaptation.
+ * <p>
+ * Accessors are equal when they access the same member, so that matchers using them are structurally equal
+ * (see {@link Matcher#equals(Object)}).
+ */
+final class PropertyAccessor implements Function<Object, Object> {
+
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final Member member;
+    private final MethodHandle handle;
+
+    private PropertyAccessor(Member member, MethodHandle handle) {
+        this.member = member;
+        this.handle = handle.asType(ACCESSOR_TYPE);
+    }
+
+    /**
+     * @throws IllegalArgumentException if neither the type nor its superclasses declare an instance field of that name,
+     * or if it can't be made accessible
+     */
+    static PropertyAccessor field(Class<?> type, String name) {
+        for (Class<?> declaringType = type; declaringType != null; declaringType = declaringType.getSuperclass()) {
+            for (Field field : declaringType.getDeclaredFields()) {
+                if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+                    makeAccessible(field);
+                    try {
+                        return new PropertyAccessor(field, MethodHandles.lookup().unreflectGetter(field));
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalArgumentException("Field " + field + " isn't accessible", e);
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("No instance field " + name + " in " + type.getName());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the type has no public, non-static method of that name without parameters returning a value,
+     * or if it can't be made accessible
+     */
+    static PropertyAccessor getter(Class<?> type, String name) {
+        Method method;
+        try {
+            method = type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("No getter " + name + "() in " + type.getName(), e);
+        }
+        if (Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class) {
+            throw new IllegalArgumentException(method + " isn't a getter");
+        }
+        makeAccessible(method);
+        try {
+            return new PropertyAccessor(method, MethodHandles.lookup().unreflect(method));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Method " + method + " isn't accessible", e);
+        }
+    }
+
+    //public members of public classes are accessible to this class's lookup as they are, others
+    //(e.g. private fields, or public members of non-public classes) are made accessible
+    private static <M extends AccessibleObject & Member> void makeAccessible(M member) {
+        if (Modifier.isPublic(member.getModifiers()) && Modifier.isPublic(member.getDeclaringClass().getModifiers())) {
+            return;
+        }
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(member + " can't be made accessible", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked cast")
+    //the accessor reads members of F, of type T
+    <F, T> Property<F, T> toProperty() {
+        Function<F, T> value = (Function<F, T>) (Function<?, ?>) this;
+        return new Property<F, T>() {
+            @Override
+            public <R> PropertyMatcher<F, R> matching(Matcher<R> matcher) {
+                return PropertyMatcher.ofValue(member.getName(), PropertyAccessor.this, value, matcher);
+            }
+        };
+    }
+
+    @Override
+    public Object apply(Object source) {
+        try {
+            return (Object) handle.invokeExact(source);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            //getters throwing checked exceptions
+            throw new IllegalStateException("Reading " + member + " failed", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PropertyAccessor && member.equals(((PropertyAccessor) o).member);
+    }
+
+    @Override
+    public int hashCode() {
+        return member.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return member.toString();
+    }
+}
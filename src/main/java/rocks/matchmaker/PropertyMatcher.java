@@ -1,10 +1,17 @@
 package rocks.matchmaker;
 
+import rocks.matchmaker.util.Util;
+
 import java.util.function.Function;
 
 public class PropertyMatcher<F, R> {
 
+    private final String name;
+    //the property function as given, as the one wrapping it below is created anew on every call
+    private final Object key;
     private final Function<F, Option<?>> property;
+    //the value of a property that's always present, read without wrapping it in an Option (null for other properties)
+    private final Function<F, ?> value;
     private final Matcher<R> matcher;
 
     //this reflects the fact that PropertyMatcher<F, R> is contravariant on F and covaraint on R
@@ -14,19 +21,62 @@ public class PropertyMatcher<F, R> {
     }
 
     public static <F, T, R> PropertyMatcher<F, R> of(Function<F, Option<T>> property, Matcher<R> matcher) {
+        return of("property", property, matcher);
+    }
+
+    public static <F, T, R> PropertyMatcher<F, R> of(String name, Function<F, Option<T>> property, Matcher<R> matcher) {
         //without the ::apply below, the type system is unable to drop the R type from Option
-        return new PropertyMatcher<>(property::apply, matcher);
+        return new PropertyMatcher<>(name, property, property::apply, null, matcher);
+    }
+
+    static <F, R> PropertyMatcher<F, R> ofValue(String name, Object key, Function<F, ?> value, Matcher<R> matcher) {
+        return new PropertyMatcher<>(name, key, source -> Option.of(value.apply(source)), value, matcher);
     }
 
-    private PropertyMatcher(Function<F, Option<?>> property, Matcher<R> matcher) {
+    private PropertyMatcher(String name, Object key, Function<F, Option<?>> property, Function<F, ?> value, Matcher<R> matcher) {
+        this.name = Util.checkNotNull(name);
+        this.key = key;
         this.property = property;
+        this.value = value;
         this.matcher = matcher;
     }
 
+    public PropertyMatcher<F, R> named(String name) {
+        return new PropertyMatcher<>(name, key, property, value, matcher);
+    }
+
+    /**
+     * @return the same property, matched by the given matcher
+     */
+    <S> PropertyMatcher<F, S> withMatcher(Matcher<S> matcher) {
+        return new PropertyMatcher<>(name, key, property, value, matcher);
+    }
+
+    /**
+     * @return a human-readable name of the property, e.g. for labelling profiled steps
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return identifies the property when comparing matchers, see {@link Matcher#equals(Object)}
+     */
+    Object getKey() {
+        return key;
+    }
+
     public Function<F, Option<?>> getProperty() {
         return property;
     }
 
+    /**
+     * @return the function reading the property's value, if the property is always present, null otherwise
+     */
+    Function<F, ?> getValue() {
+        return value;
+    }
+
     public Matcher<R> getMatcher() {
         return matcher;
     }
@@ -0,0 +1,183 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Indexed;
+import rocks.matchmaker.util.Util;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+import static rocks.matchmaker.Matcher.nullable;
+
+/**
+ * A pattern match whose cases (rules) can be added, removed and replaced while its matchers are in use
+ * (see {@link PatternMatch#toRuleSet()}).
+ * <p>
+ * The rule set publishes an immutable {@link CompiledPatternMatch} snapshot of its rules and swaps it atomically on every change.
+ * Each evaluation of {@link #returnFirst()} and {@link #returningAll()} reads the current snapshot once, so it never
+ * blocks and sees either all or none of a change, while evaluations in flight finish against the snapshot they started with.
+ * Snapshots are derived from the previous ones incrementally, copying only the parts of the dispatch table the changed rule affects.
+ * <p>
+ * Changes are serialized. New rules are evaluated after all the existing ones, replaced rules keep their position.
+ * <p>
+ * Unlike {@link PatternMatch#compile()}, a rule set doesn't look for unreachable rules on every change:
+ * its rules are all evaluated, and the snapshots report none.
+ * <p>
+ * The rules keep the cost lower bounds declared by the pattern match's cases (see {@link PatternMatch.Case#withCostAtLeast(double)}),
+ * added and replaced rules have none.
+ */
+public final class RuleSet<T, R> {
+
+    private final Object lock = new Object();
+    private final MatchMetrics metrics;
+    private final boolean exhaustive;
+    private volatile CompiledPatternMatch<T, R> current;
+    private int nextIndex;
+
+    private final Matcher<R> firstMatcher;
+    private final Matcher<List<R>> allMatcher;
+
+    RuleSet(CompiledPatternMatch<T, R> initial, MatchMetrics metrics, boolean exhaustive) {
+        this.metrics = metrics;
+        this.exhaustive = exhaustive;
+        this.current = initial;
+        this.nextIndex = initial.dispatch().indexBound();
+        this.firstMatcher = nullable(Object.class).flatMap("returnFirst",
+                (object, captures, context) -> current.firstFunction.apply(object, captures, context),
+                (object, captures, context) -> current.firstAsyncFunction.apply(object, captures, context));
+        this.allMatcher = nullable(Object.class).flatMap("returningAll",
+                (object, captures, context) -> current.allFunction.apply(object, captures, context),
+                (object, captures, context) -> current.allAsyncFunction.apply(object, captures, context));
+    }
+
+    public Rule add(Matcher<? extends T> matcher, Supplier<R> result) {
+        return add(matcher, __ -> result.get());
+    }
+
+    /**
+     * @return a handle identifying the new rule
+     */
+    public Rule add(Matcher<? extends T> matcher, Function<T, R> result) {
+        synchronized (lock) {
+            Util.checkArgument(nextIndex >= 0, "Too many rules added to this rule set");
+            Rule rule = new Rule(this, nextIndex);
+            publish(current.dispatch().with(Indexed.at(rule.index, PatternMatch.caseMatcher(matcher, result))), current.costLowerBounds());
+            nextIndex++;
+            return rule;
+        }
+    }
+
+    public void replace(Rule rule, Matcher<? extends T> matcher, Supplier<R> result) {
+        replace(rule, matcher, __ -> result.get());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the rule isn't in this rule set (anymore)
+     */
+    public void replace(Rule rule, Matcher<? extends T> matcher, Function<T, R> result) {
+        synchronized (lock) {
+            Util.checkArgument(contains(rule), "Rule " + rule + " isn't in this rule set");
+            double[] costLowerBounds = current.costLowerBounds();
+            if (rule.index < costLowerBounds.length) {
+                costLowerBounds = costLowerBounds.clone();
+                costLowerBounds[rule.index] = Double.NEGATIVE_INFINITY;
+            }
+            publish(current.dispatch().with(Indexed.at(rule.index, PatternMatch.caseMatcher(matcher, result))), costLowerBounds);
+        }
+    }
+
+    /**
+     * @return true if the rule was in this rule set
+     */
+    public boolean remove(Rule rule) {
+        synchronized (lock) {
+            if (!contains(rule)) {
+                return false;
+            }
+            publish(current.dispatch().without(rule.index), current.costLowerBounds());
+            return true;
+        }
+    }
+
+    //the snapshot is built, and checked for exhaustiveness, before it's published
+    private void publish(CaseDispatch<R> dispatch, double[] costLowerBounds) {
+        current = new CompiledPatternMatch<>(dispatch, costLowerBounds, metrics, exhaustive, false);
+    }
+
+    private boolean contains(Rule rule) {
+        return rule.ruleSet == this && current.dispatch().hasCase(rule.index);
+    }
+
+    /**
+     * @return the rules, in the order they're evaluated in
+     */
+    public List<Rule> getRules() {
+        return current.dispatch().candidates(null).stream()
+                .map(c -> new Rule(this, c.index()))
+                .collect(toList());
+    }
+
+    /**
+     * @return the current rules. The snapshot isn't affected by later changes.
+     */
+    public CompiledPatternMatch<T, R> snapshot() {
+        return current;
+    }
+
+    /**
+     * @return a matcher returning the result of the first matching rule, as of the start of each evaluation
+     */
+    public Matcher<R> returnFirst() {
+        return firstMatcher;
+    }
+
+    /**
+     * @return a matcher returning the results of all matching rules, as of the start of each evaluation
+     */
+    public Matcher<List<R>> returningAll() {
+        return allMatcher;
+    }
+
+    /**
+     * Identifies a rule of a rule set. Rule indices are the case indices reported in
+     * {@link MatchMetrics} and {@link MatchProfiler} results.
+     */
+    public static final class Rule {
+
+        private final RuleSet<?, ?> ruleSet;
+        private final int index;
+
+        private Rule(RuleSet<?, ?> ruleSet, int index) {
+            this.ruleSet = ruleSet;
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Rule rule = (Rule) o;
+            return ruleSet == rule.ruleSet && index == rule.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(ruleSet), index);
+        }
+
+        @Override
+        public String toString() {
+            return "rule[" + index + "]";
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package rocks.matchmaker;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Supertypes of the classes of matched objects, used by pattern matches
+ * to narrow down the cases to try to the ones with a matching scope type.
+ * <p>
+ * Supertypes are computed once per class, by walking its superclasses and interfaces,
+ * and cached for the lifetime of the class. The walk uses no reflection beyond
+ * {@link Class#getSuperclass()} and {@link Class#getInterfaces()}, so it needs no
+ * reachability metadata when compiled ahead of time (e.g. by GraalVM native-image).
+ */
+final class ScopeTypes {
+
+    private static final ClassValue<List<Class<?>>> SUPERTYPES = new ClassValue<List<Class<?>>>() {
+        @Override
+        protected List<Class<?>> computeValue(Class<?> type) {
+            return walkSupertypes(type);
+        }
+    };
+
+    private ScopeTypes() {
+    }
+
+    /**
+     * @return the type, its superclasses and all the interfaces they implement, each once,
+     * starting with the type itself
+     */
+    static List<Class<?>> supertypes(Class<?> type) {
+        return SUPERTYPES.get(type);
+    }
+
+    private static List<Class<?>> walkSupertypes(Class<?> type) {
+        Set<Class<?>> supertypes = new LinkedHashSet<>();
+        if (type.isArray() && !type.getComponentType().isPrimitive()) {
+            //arrays are covariant: a String[] is an Object[], a CharSequence[] etc.
+            for (Class<?> componentSupertype : supertypes(type.getComponentType())) {
+                supertypes.add(Array.newInstance(componentSupertype, 0).getClass());
+            }
+        }
+        Deque<Class<?>> toVisit = new ArrayDeque<>();
+        toVisit.add(type);
+        while (!toVisit.isEmpty()) {
+            Class<?> current = toVisit.poll();
+            if (supertypes.add(current) || current == type) {
+                if (current.getSuperclass() != null) {
+                    toVisit.add(current.getSuperclass());
+                }
+                toVisit.addAll(Arrays.asList(current.getInterfaces()));
+            }
+        }
+        if (type.isInterface()) {
+            supertypes.add(Object.class);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(supertypes));
+    }
+}
@@ -0,0 +1,26 @@
+package rocks.matchmaker;
+
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Discovery of sealed class hierarchies.
+ * <p>
+ * This is the implementation for Java 8, which has no sealed classes, so only final classes' hierarchies are closed.
+ * On Java 17+, the multi-release jar
+ * replaces it with one based on {@code Class.getPermittedSubclasses()} (see src/main/java17).
+ * Both implementations must keep the same signatures.
+ */
+final class SealedHierarchies {
+
+    private SealedHierarchies() {}
+
+    /**
+     * @return all the classes that instances of the type can have (i.e. the concrete classes of its
+     * sealed hierarchy), or null if they aren't known up front
+     */
+    static Set<Class<?>> leafClasses(Class<?> type) {
+        return Modifier.isFinal(type.getModifiers()) && !type.isArray() ? Collections.singleton(type) : null;
+    }
+}
@@ -0,0 +1,138 @@
+package rocks.matchmaker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detects a {@link SequencePattern} in a stream of events, one event at a time.
+ * <p>
+ * The detector is a nondeterministic automaton over the pattern's elements. Its active runs are the partially matched
+ * sequences: the events matched so far, with their captures. Each event is matched against the next element
+ * of every active run, advancing the runs it matches into new ones, and against the first element, starting a new run.
+ * The runs it advances stay active as well, so that every combination of matching events is detected
+ * (e.g. two scans followed by a filter are two sequences). Processing an event thus takes time proportional
+ * to the number of active runs, and never looks at past events again.
+ * <p>
+ * Runs that can't be completed anymore, because the next element would be further from the previous one than
+ * the pattern allows, are dropped. So are the oldest runs over the pattern's limit of active runs.
+ * <p>
+ * Not thread-safe: a detector processes a single stream of events.
+ */
+public final class SequenceDetector<T> {
+
+    private final List<Matcher<? extends T>> elements;
+    private final long[] withins;
+    private final int maxActiveRuns;
+    //whether the current event is of the scope type of each element, so that runs can't advance otherwise
+    private final boolean[] applicable;
+
+    private List<Run> runs = new ArrayList<>();
+    private long events;
+    private long droppedRuns;
+
+    SequenceDetector(List<Matcher<? extends T>> elements, long[] withins, int maxActiveRuns) {
+        this.elements = elements;
+        this.withins = withins;
+        this.maxActiveRuns = maxActiveRuns;
+        this.applicable = new boolean[elements.size()];
+    }
+
+    /**
+     * @return the sequences the event completes, in the order their runs were started.
+     * The value of each match is the list of the sequence's events, its captures are the captures of all of them.
+     */
+    public List<Match<List<T>>> accept(T event) {
+        long eventNumber = events++;
+        for (int element = 0; element < elements.size(); element++) {
+            applicable[element] = event == null || elements.get(element).getScopeType().isInstance(event);
+        }
+        List<Match<List<T>>> detected = Collections.emptyList();
+        List<Run> nextRuns = new ArrayList<>(runs.size() + 1);
+        for (Run run : runs) {
+            if (eventNumber - run.eventNumber > withins[run.matchedElements]) {
+                continue;
+            }
+            nextRuns.add(run);
+            detected = advance(run, event, eventNumber, nextRuns, detected);
+        }
+        detected = advance(null, event, eventNumber, nextRuns, detected);
+
+        int excessRuns = nextRuns.size() - maxActiveRuns;
+        if (excessRuns > 0) {
+            droppedRuns += excessRuns;
+            nextRuns = new ArrayList<>(nextRuns.subList(excessRuns, nextRuns.size()));
+        }
+        runs = nextRuns;
+        return detected;
+    }
+
+    //matches the event against the run's next element (the first element if there's no run)
+    private List<Match<List<T>>> advance(Run run, T event, long eventNumber, List<Run> nextRuns, List<Match<List<T>>> detected) {
+        int element = run == null ? 0 : run.matchedElements;
+        if (!applicable[element]) {
+            return detected;
+        }
+        Match<? extends T> match = elements.get(element).match(event, run == null ? Captures.empty() : run.captures);
+        if (match.isEmpty()) {
+            return detected;
+        }
+        Run advanced = new Run(run, event, eventNumber, match.captures());
+        if (advanced.matchedElements < elements.size()) {
+            nextRuns.add(advanced);
+            return detected;
+        }
+        List<Match<List<T>>> allDetected = detected.isEmpty() ? new ArrayList<>() : detected;
+        allDetected.add(Match.of(advanced.events(), advanced.captures));
+        return allDetected;
+    }
+
+    /**
+     * @return the number of partially matched sequences
+     */
+    public int getActiveRuns() {
+        return runs.size();
+    }
+
+    /**
+     * @return the number of partially matched sequences dropped so far to stay within the limit of active runs
+     */
+    public long getDroppedRuns() {
+        return droppedRuns;
+    }
+
+    /**
+     * Drops all the partially matched sequences, as if no events were processed yet.
+     */
+    public void reset() {
+        runs = new ArrayList<>();
+    }
+
+    //a partially matched sequence, sharing the events matched before the last one with the run it was advanced from
+    private final class Run {
+
+        private final Run previous;
+        private final T event;
+        private final long eventNumber;
+        private final Captures captures;
+        private final int matchedElements;
+
+        private Run(Run previous, T event, long eventNumber, Captures captures) {
+            this.previous = previous;
+            this.event = event;
+            this.eventNumber = eventNumber;
+            this.captures = captures;
+            this.matchedElements = previous == null ? 1 : previous.matchedElements + 1;
+        }
+
+        @SuppressWarnings("unchecked cast")
+        private List<T> events() {
+            Object[] events = new Object[matchedElements];
+            for (Run run = this; run != null; run = run.previous) {
+                events[run.matchedElements - 1] = run.event;
+            }
+            return Collections.unmodifiableList(Arrays.asList((T[]) events));
+        }
+    }
+}
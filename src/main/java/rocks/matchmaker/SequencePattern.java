@@ -0,0 +1,77 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered sequence of matchers, detected in a stream of events by a {@link SequenceDetector}:
+ * an event matching the first matcher, followed (not necessarily immediately) by an event matching the second one, and so on.
+ * <p>
+ * Each matcher is evaluated with the captures of the events matched so far, so that later elements can refer to earlier ones,
+ * e.g. with an {@link Extractor} comparing the event to a captured one.
+ * <p>
+ * Patterns are immutable, {@link #then(Matcher)} returns a new, longer pattern.
+ */
+public final class SequencePattern<T> {
+
+    private static final int DEFAULT_MAX_ACTIVE_RUNS = 10_000;
+
+    private final List<Matcher<? extends T>> elements;
+    //for each element, the most events it can follow the previous element's event by
+    private final List<Long> withins;
+    private final int maxActiveRuns;
+
+    private SequencePattern(List<Matcher<? extends T>> elements, List<Long> withins, int maxActiveRuns) {
+        this.elements = elements;
+        this.withins = withins;
+        this.maxActiveRuns = maxActiveRuns;
+    }
+
+    public static <T> SequencePattern<T> sequenceOf() {
+        return new SequencePattern<>(Collections.emptyList(), Collections.emptyList(), DEFAULT_MAX_ACTIVE_RUNS);
+    }
+
+    /**
+     * @return a pattern matching the element after this pattern's elements, any number of events later
+     */
+    public SequencePattern<T> then(Matcher<? extends T> element) {
+        return then(element, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param withinEvents the most events the element can follow the previous element by, 1 meaning it has to follow it immediately.
+     * Ignored for the first element.
+     */
+    public SequencePattern<T> then(Matcher<? extends T> element, long withinEvents) {
+        Util.checkArgument(withinEvents > 0, "withinEvents must be positive");
+        return new SequencePattern<>(Util.append(elements, Util.checkNotNull(element)), Util.append(withins, withinEvents), maxActiveRuns);
+    }
+
+    /**
+     * Bounds the memory of the detectors: when an event would make more sequences partially matched at once,
+     * the oldest ones are dropped. Limiting how far apart the elements can be (see {@link #then(Matcher, long)})
+     * bounds it as well, as partially matched sequences are dropped as soon as they can't be completed.
+     */
+    public SequencePattern<T> withMaxActiveRuns(int maxActiveRuns) {
+        Util.checkArgument(maxActiveRuns > 0, "maxActiveRuns must be positive");
+        return new SequencePattern<>(elements, withins, maxActiveRuns);
+    }
+
+    /**
+     * @return a new detector of this pattern, with nothing matched yet
+     * @throws IllegalStateException if the pattern has no elements
+     */
+    public SequenceDetector<T> detector() {
+        if (elements.isEmpty()) {
+            throw new IllegalStateException("A sequence pattern needs at least one element");
+        }
+        return new SequenceDetector<>(new ArrayList<>(elements), withins.stream().mapToLong(Long::longValue).toArray(), maxActiveRuns);
+    }
+
+    public int size() {
+        return elements.size();
+    }
+}
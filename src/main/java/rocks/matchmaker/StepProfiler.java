@@ -0,0 +1,91 @@
+package rocks.matchmaker;
+
+import java.util.Arrays;
+
+/**
+ * Records a single profiled evaluation: the wall time and allocation of each step,
+ * excluding the nested steps' ones, reported to the {@link MatchProfiler} under the path of step labels.
+ * <p>
+ * The profiler's own work between the steps is excluded from the enclosing steps as far as possible.
+ * Not thread-safe, as an evaluation happens on a single thread.
+ */
+class StepProfiler {
+
+    private static final int INITIAL_DEPTH = 16;
+
+    private final MatchProfiler profiler;
+    private final long threadId = Thread.currentThread().getId();
+
+    private int depth;
+    private String[] paths = new String[INITIAL_DEPTH];
+    private long[] enterNanos = new long[INITIAL_DEPTH];
+    private long[] enterBytes = new long[INITIAL_DEPTH];
+    private long[] startNanos = new long[INITIAL_DEPTH];
+    private long[] startBytes = new long[INITIAL_DEPTH];
+    private long[] nestedNanos = new long[INITIAL_DEPTH];
+    private long[] nestedBytes = new long[INITIAL_DEPTH];
+
+    StepProfiler(MatchProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Wraps a step so that it is profiled whenever it's evaluated within a profiled evaluation.
+     */
+    static <F, R> MatchFunction<F, R> profiled(String label, MatchFunction<F, R> step) {
+        return (value, captures, context) -> {
+            StepProfiler profiler = context.getProfiler();
+            if (profiler == null) {
+                return step.apply(value, captures, context);
+            }
+            profiler.enter(label);
+            try {
+                return step.apply(value, captures, context);
+            } finally {
+                profiler.exit();
+            }
+        };
+    }
+
+    void enter(String label) {
+        long nanos = System.nanoTime();
+        long bytes = profiler.allocatedBytes(threadId);
+        if (depth == paths.length) {
+            grow();
+        }
+        enterNanos[depth] = nanos;
+        enterBytes[depth] = bytes;
+        paths[depth] = depth == 0 ? label : paths[depth - 1] + ';' + label;
+        nestedNanos[depth] = 0;
+        nestedBytes[depth] = 0;
+        startBytes[depth] = profiler.allocatedBytes(threadId);
+        startNanos[depth] = System.nanoTime();
+        depth++;
+    }
+
+    void exit() {
+        long endNanos = System.nanoTime();
+        long endBytes = profiler.allocatedBytes(threadId);
+        depth--;
+        profiler.record(
+                paths[depth],
+                endNanos - startNanos[depth] - nestedNanos[depth],
+                endBytes - startBytes[depth] - nestedBytes[depth]);
+        if (depth > 0) {
+            //including the profiler's own overhead, so that it isn't attributed to the enclosing step
+            nestedNanos[depth - 1] += System.nanoTime() - enterNanos[depth];
+            nestedBytes[depth - 1] += profiler.allocatedBytes(threadId) - enterBytes[depth];
+        }
+    }
+
+    private void grow() {
+        int newLength = paths.length * 2;
+        paths = Arrays.copyOf(paths, newLength);
+        enterNanos = Arrays.copyOf(enterNanos, newLength);
+        enterBytes = Arrays.copyOf(enterBytes, newLength);
+        startNanos = Arrays.copyOf(startNanos, newLength);
+        startBytes = Arrays.copyOf(startBytes, newLength);
+        nestedNanos = Arrays.copyOf(nestedNanos, newLength);
+        nestedBytes = Arrays.copyOf(nestedBytes, newLength);
+    }
+}
@@ -0,0 +1,247 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Indexed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Narrows down the candidate cases of a pattern match for a string, when many of them are literal cases:
+ * unconditional {@code typeOf(String.class)} tests followed by a single test against a literal
+ * ({@link StringMatchers#startsWith(String)}, {@link StringMatchers#endsWith(String)},
+ * {@link StringMatchers#contains(String)} or {@link Matcher#equalTo(Object)}), possibly captured.
+ * <p>
+ * The literals are compiled into an Aho-Corasick automaton (a DFA), which finds all their occurrences
+ * in a single scan of the string. The literal cases the occurrences don't satisfy are dropped from the candidates,
+ * so that only the matching ones, and the other cases, are evaluated.
+ */
+final class StringCases<R> {
+
+    //fewer literal cases are cheaper to evaluate one by one than to scan the string for
+    static final int MIN_LITERAL_CASES = 4;
+
+    private static final int EQUAL_TO = 0;
+    private static final int STARTS_WITH = 1;
+    private static final int ENDS_WITH = 2;
+    private static final int CONTAINS = 3;
+
+    private final List<Indexed<Matcher<R>>> candidates;
+    private final boolean[] literalCandidates;
+
+    //for each literal: its length, and the candidates testing it (their positions and kinds of test)
+    private final int[] literalLengths;
+    private final int[][] literalCandidatePositions;
+    private final int[][] literalCandidateKinds;
+    //the empty literal occurs everywhere, so it's handled apart from the automaton
+    private final int emptyLiteral;
+
+    //the automaton: transitions by state and column of the character, and the literals ending in each state
+    private final int[] asciiColumns;
+    private final Map<Character, Integer> otherColumns;
+    private final int columnCount;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    private StringCases(List<Indexed<Matcher<R>>> candidates, boolean[] literalCandidates, Map<String, List<int[]>> literals) {
+        this.candidates = candidates;
+        this.literalCandidates = literalCandidates;
+        this.literalLengths = new int[literals.size()];
+        this.literalCandidatePositions = new int[literals.size()][];
+        this.literalCandidateKinds = new int[literals.size()][];
+        this.asciiColumns = new int[128];
+        this.otherColumns = new HashMap<>();
+
+        //the trie of the literals
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<List<Integer>> endingLiterals = new ArrayList<>();
+        children.add(new HashMap<>());
+        endingLiterals.add(new ArrayList<>());
+        Arrays.fill(asciiColumns, -1);
+        int columns = 0;
+        int literal = 0;
+        int emptyLiteral = -1;
+        for (Map.Entry<String, List<int[]>> entry : literals.entrySet()) {
+            String text = entry.getKey();
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (column(c) < 0) {
+                    if (c < asciiColumns.length) {
+                        asciiColumns[c] = columns++;
+                    } else {
+                        otherColumns.put(c, columns++);
+                    }
+                }
+                Integer child = children.get(state).get(c);
+                if (child == null) {
+                    child = children.size();
+                    children.get(state).put(c, child);
+                    children.add(new HashMap<>());
+                    endingLiterals.add(new ArrayList<>());
+                }
+                state = child;
+            }
+            if (text.isEmpty()) {
+                emptyLiteral = literal;
+            } else {
+                endingLiterals.get(state).add(literal);
+            }
+            literalLengths[literal] = text.length();
+            literalCandidatePositions[literal] = entry.getValue().stream().mapToInt(candidate -> candidate[0]).toArray();
+            literalCandidateKinds[literal] = entry.getValue().stream().mapToInt(candidate -> candidate[1]).toArray();
+            literal++;
+        }
+        this.emptyLiteral = emptyLiteral;
+        this.columnCount = columns;
+
+        //the DFA, built breadth-first, so that a state's failure state (the longest proper suffix in the trie) is complete before it
+        int states = children.size();
+        this.transitions = new int[states * columns];
+        this.outputs = new int[states][];
+        int[] failures = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            List<Integer> stateOutputs = new ArrayList<>(endingLiterals.get(state));
+            if (state != 0) {
+                for (int output : outputs[failures[state]]) {
+                    stateOutputs.add(output);
+                }
+            }
+            outputs[state] = stateOutputs.stream().mapToInt(Integer::intValue).toArray();
+            if (state != 0) {
+                System.arraycopy(transitions, failures[state] * columns, transitions, state * columns, columns);
+            }
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                int childState = child.getValue();
+                int column = column(child.getKey());
+                failures[childState] = state == 0 ? 0 : transitions[failures[state] * columns + column];
+                transitions[state * columns + column] = childState;
+                queue.add(childState);
+            }
+        }
+    }
+
+    /**
+     * @return the literal cases of the candidates, or null if there are too few of them
+     */
+    static <R> StringCases<R> of(List<Indexed<Matcher<R>>> candidates) {
+        boolean[] literalCandidates = new boolean[candidates.size()];
+        Map<String, List<int[]>> literals = new LinkedHashMap<>();
+        int literalCases = 0;
+        for (int position = 0; position < candidates.size(); position++) {
+            Matcher<?> literalTest = literalTest(candidates.get(position).value());
+            if (literalTest == null) {
+                continue;
+            }
+            literalCandidates[position] = true;
+            literalCases++;
+            String literal = (String) literalTest.getStepOperands().get(0);
+            literals.computeIfAbsent(literal, __ -> new ArrayList<>()).add(new int[] {position, kind(literalTest.getStepLabel())});
+        }
+        return literalCases < MIN_LITERAL_CASES ? null : new StringCases<>(candidates, literalCandidates, literals);
+    }
+
+    private static Matcher<?> literalTest(Matcher<?> caseMatcher) {
+        Matcher<?> matcher = PatternMatch.pattern(caseMatcher);
+        Matcher<?> literalTest = null;
+        for (; matcher.getPrevious() != null; matcher = matcher.getPrevious()) {
+            if (matcher.getStepLabel().equals("capturedAs")) {
+                continue;
+            }
+            if (literalTest != null || kind(matcher.getStepLabel()) < 0 || !(matcher.getStepOperands().get(0) instanceof String)) {
+                return null;
+            }
+            literalTest = matcher;
+        }
+        boolean stringTypeTest = matcher.getStepLabel().equals("typeOf") && matcher.getStepOperands().get(0) == String.class;
+        return stringTypeTest ? literalTest : null;
+    }
+
+    private static int kind(String stepLabel) {
+        switch (stepLabel) {
+            case "equalTo":
+                return EQUAL_TO;
+            case "startsWith":
+                return STARTS_WITH;
+            case "endsWith":
+                return ENDS_WITH;
+            case "contains":
+                return CONTAINS;
+            default:
+                return -1;
+        }
+    }
+
+    private int column(char c) {
+        if (c < asciiColumns.length) {
+            return asciiColumns[c];
+        }
+        Integer column = otherColumns.get(c);
+        return column == null ? -1 : column;
+    }
+
+    /**
+     * @return the candidates, in order, without the literal cases the string doesn't match
+     */
+    List<Indexed<Matcher<R>>> candidates(String string) {
+        boolean[] matched = new boolean[candidates.size()];
+        int length = string.length();
+        if (emptyLiteral >= 0) {
+            matchEmptyLiteral(length, matched);
+        }
+        int state = 0;
+        for (int end = 0; end < length; end++) {
+            int column = column(string.charAt(end));
+            state = column < 0 ? 0 : transitions[state * columnCount + column];
+            for (int literal : outputs[state]) {
+                match(literal, end - literalLengths[literal] + 1, end, length, matched);
+            }
+        }
+
+        List<Indexed<Matcher<R>>> stringCandidates = new ArrayList<>(candidates.size());
+        for (int position = 0; position < candidates.size(); position++) {
+            if (!literalCandidates[position] || matched[position]) {
+                stringCandidates.add(candidates.get(position));
+            }
+        }
+        return stringCandidates;
+    }
+
+    //every string starts with, ends with and contains the empty literal, only the empty string equals it
+    private void matchEmptyLiteral(int length, boolean[] matched) {
+        int[] positions = literalCandidatePositions[emptyLiteral];
+        int[] kinds = literalCandidateKinds[emptyLiteral];
+        for (int i = 0; i < positions.length; i++) {
+            matched[positions[i]] |= kinds[i] != EQUAL_TO || length == 0;
+        }
+    }
+
+    //an occurrence of the literal, from start to end (inclusive), in a string of the given length
+    private void match(int literal, int start, int end, int length, boolean[] matched) {
+        int[] positions = literalCandidatePositions[literal];
+        int[] kinds = literalCandidateKinds[literal];
+        for (int i = 0; i < positions.length; i++) {
+            switch (kinds[i]) {
+                case EQUAL_TO:
+                    matched[positions[i]] |= start == 0 && end == length - 1;
+                    break;
+                case STARTS_WITH:
+                    matched[positions[i]] |= start == 0;
+                    break;
+                case ENDS_WITH:
+                    matched[positions[i]] |= end == length - 1;
+                    break;
+                default:
+                    matched[positions[i]] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.regex.Pattern;
+
+/**
+ * Matchers of strings. Unlike predicates like {@code s -> s.matches(regex)}, regular expressions are compiled
+ * once, when the matcher is built.
+ * <p>
+ * Pattern matches recognize the cases testing a string against a single literal - {@link #startsWith(String)},
+ * {@link #endsWith(String)}, {@link #contains(String)} and {@link Matcher#equalTo(Object)} - and when there are
+ * many of them, find all those matching a string in a single scan of it (see {@link StringCases}).
+ */
+public final class StringMatchers {
+
+    private StringMatchers() {
+    }
+
+    public static Matcher<String> startsWith(String prefix) {
+        Util.checkNotNull(prefix);
+        return string().test(Matcher.step("startsWith", prefix), "startsWith", s -> s.startsWith(prefix));
+    }
+
+    public static Matcher<String> endsWith(String suffix) {
+        Util.checkNotNull(suffix);
+        return string().test(Matcher.step("endsWith", suffix), "endsWith", s -> s.endsWith(suffix));
+    }
+
+    public static Matcher<String> contains(String literal) {
+        Util.checkNotNull(literal);
+        return string().test(Matcher.step("contains", literal), "contains", s -> s.contains(literal));
+    }
+
+    /**
+     * @return a matcher of the strings the whole of which match the regular expression, as {@link String#matches(String)}
+     */
+    public static Matcher<String> matchesRegex(String regex) {
+        return matchesRegex(Pattern.compile(regex));
+    }
+
+    public static Matcher<String> matchesRegex(Pattern pattern) {
+        Util.checkNotNull(pattern);
+        return string().test(Matcher.step("matchesRegex", pattern), "matchesRegex", s -> pattern.matcher(s).matches());
+    }
+
+    /**
+     * @return a matcher of the strings some part of which matches the regular expression
+     */
+    public static Matcher<String> containsRegex(String regex) {
+        return containsRegex(Pattern.compile(regex));
+    }
+
+    public static Matcher<String> containsRegex(Pattern pattern) {
+        Util.checkNotNull(pattern);
+        return string().test(Matcher.step("containsRegex", pattern), "containsRegex", s -> pattern.matcher(s).find());
+    }
+
+    private static Matcher<String> string() {
+        return Matcher.typeOf(String.class);
+    }
+}
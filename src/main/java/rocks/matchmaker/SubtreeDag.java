@@ -0,0 +1,173 @@
+package rocks.matchmaker;
+
+import rocks.matchmaker.util.Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A tree of objects hash-consed into a DAG of its unique subtrees: structurally identical subtrees
+ * (e.g. repeated scans of the same table under different branches of a plan) are one unique subtree,
+ * represented by its last occurrence in pre-order.
+ * <p>
+ * Two subtrees are identical if their roots are of the same class, have equal attributes
+ * and identical children, in the same positions. The attributes of a node are given by a function,
+ * e.g. returning a scan's table name, and must have a proper equals().
+ * <p>
+ * Matching the tree with {@link #matchUniqueSubtrees(Matcher)} evaluates the matcher once per unique subtree,
+ * and {@link #findAll(Matcher)} skips the other occurrences of the unique subtrees that don't match. The results are those
+ * of matching every node as long as the matcher only looks at what makes subtrees identical: the nodes' classes,
+ * attributes and children.
+ * <p>
+ * Immutable, built once per tree (see {@link #of(Object, Function, Function)}).
+ */
+public final class SubtreeDag<N> {
+
+    private static final int NULL_CHILD = -1;
+
+    //the nodes of the tree, in pre-order
+    private final List<N> nodes;
+    //a node of each unique subtree, children before their parents
+    private final List<N> uniqueSubtrees;
+    //the unique subtree of each node of the tree
+    private final int[] occurrences;
+
+    private SubtreeDag(List<N> nodes, List<N> uniqueSubtrees, int[] occurrences) {
+        this.nodes = nodes;
+        this.uniqueSubtrees = Collections.unmodifiableList(uniqueSubtrees);
+        this.occurrences = occurrences;
+    }
+
+    /**
+     * Nodes reachable through more than one parent are nodes of the tree as many times. Null children are skipped.
+     *
+     * @param attributes the values, other than the children, that the subtrees of equal nodes can differ in
+     */
+    public static <N> SubtreeDag<N> of(N root, Function<? super N, ? extends List<? extends N>> children, Function<? super N, ?> attributes) {
+        Util.checkNotNull(root);
+        List<N> nodes = new ArrayList<>();
+        Deque<N> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            N node = toVisit.pop();
+            nodes.add(node);
+            List<? extends N> nodeChildren = children.apply(node);
+            for (int i = nodeChildren.size() - 1; i >= 0; i--) {
+                if (nodeChildren.get(i) != null) {
+                    toVisit.push(nodeChildren.get(i));
+                }
+            }
+        }
+
+        //in reverse pre-order, the children of a node are interned before the node
+        IdentityHashMap<N, Integer> subtreeIds = new IdentityHashMap<>();
+        Map<SubtreeKey, Integer> keyIds = new HashMap<>();
+        List<N> uniqueSubtrees = new ArrayList<>();
+        int[] occurrences = new int[nodes.size()];
+        for (int node = nodes.size() - 1; node >= 0; node--) {
+            N value = nodes.get(node);
+            Integer subtreeId = subtreeIds.get(value);
+            if (subtreeId == null) {
+                List<? extends N> nodeChildren = children.apply(value);
+                int[] childIds = new int[nodeChildren.size()];
+                for (int i = 0; i < childIds.length; i++) {
+                    N child = nodeChildren.get(i);
+                    childIds[i] = child == null ? NULL_CHILD : subtreeIds.get(child);
+                }
+                subtreeId = keyIds.computeIfAbsent(new SubtreeKey(value.getClass(), attributes.apply(value), childIds), __ -> {
+                    uniqueSubtrees.add(value);
+                    return uniqueSubtrees.size() - 1;
+                });
+                subtreeIds.put(value, subtreeId);
+            }
+            occurrences[node] = subtreeId;
+        }
+        return new SubtreeDag<>(nodes, uniqueSubtrees, occurrences);
+    }
+
+    public int getNodeCount() {
+        return occurrences.length;
+    }
+
+    public int getUniqueSubtreeCount() {
+        return uniqueSubtrees.size();
+    }
+
+    /**
+     * @return a node of each unique subtree (its last occurrence in pre-order), children before their parents
+     */
+    public List<N> getUniqueSubtrees() {
+        return uniqueSubtrees;
+    }
+
+    /**
+     * @return the match of each unique subtree, in the order of {@link #getUniqueSubtrees()}
+     */
+    public <R> List<Match<R>> matchUniqueSubtrees(Matcher<R> matcher) {
+        List<Match<R>> matches = new ArrayList<>(uniqueSubtrees.size());
+        for (N subtree : uniqueSubtrees) {
+            matches.add(matcher.match(subtree));
+        }
+        return matches;
+    }
+
+    /**
+     * Each unique subtree is matched once. Where it matches, its other occurrences are matched too, so that the values
+     * (and their captures) are made of the occurrences' own nodes rather than of the unique subtree's.
+     *
+     * @return the values of the matches of the tree's nodes, in pre-order, as if each node was matched
+     */
+    public <R> List<R> findAll(Matcher<R> matcher) {
+        List<Match<R>> matches = matchUniqueSubtrees(matcher);
+        List<R> values = new ArrayList<>();
+        for (int node = 0; node < occurrences.length; node++) {
+            int occurrence = occurrences[node];
+            Match<R> match = matches.get(occurrence);
+            if (match.isPresent() && nodes.get(node) != uniqueSubtrees.get(occurrence)) {
+                match = matcher.match(nodes.get(node));
+            }
+            if (match.isPresent()) {
+                values.add(match.value());
+            }
+        }
+        return values;
+    }
+
+    private static final class SubtreeKey {
+
+        private final Class<?> type;
+        private final Object attributes;
+        private final int[] children;
+        private final int hashCode;
+
+        private SubtreeKey(Class<?> type, Object attributes, int[] children) {
+            this.type = type;
+            this.attributes = attributes;
+            this.children = children;
+            this.hashCode = 31 * (31 * type.hashCode() + Objects.hashCode(attributes)) + Arrays.hashCode(children);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SubtreeKey)) {
+                return false;
+            }
+            SubtreeKey that = (SubtreeKey) o;
+            return hashCode == that.hashCode && type == that.type && Arrays.equals(children, that.children) && Objects.equals(attributes, that.attributes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
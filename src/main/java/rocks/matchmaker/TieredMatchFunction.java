@@ -0,0 +1,77 @@
+package rocks.matchmaker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The match function of a tiered matcher, see {@link Matcher#tiered(int, Executor)}.
+ * <p>
+ * Until it's promoted, the function evaluates the matcher's own (interpreted) function and counts its evaluations.
+ * The count is a plain field, as in the JVM's own tiered compilation: threads racing on it may lose increments,
+ * which only delays the promotion, and counting takes no atomic operation or lock. Once the count crosses the threshold,
+ * exactly one thread submits the promotion, which builds the matcher's promoted function (see {@link MatchGuard}) on the executor
+ * and publishes it through a volatile field. Evaluations in flight finish on the function they started with.
+ * <p>
+ * The promoted function neither accounts for its tests in the evaluation's budget nor profiles them,
+ * so budgeted and profiled evaluations keep evaluating the interpreted function.
+ */
+final class TieredMatchFunction<T> implements MatchFunction<Object, T> {
+
+    private final Matcher<T> matcher;
+    private final MatchFunction<Object, T> interpreted;
+    private final int threshold;
+    private final Executor executor;
+
+    private int evaluations;
+    private final AtomicBoolean promotionSubmitted = new AtomicBoolean();
+    //null until promoted
+    private volatile MatchFunction<Object, T> promoted;
+
+    TieredMatchFunction(Matcher<T> matcher, MatchFunction<Object, T> interpreted, int threshold, Executor executor) {
+        this.matcher = matcher;
+        this.interpreted = interpreted;
+        this.threshold = threshold;
+        this.executor = executor;
+    }
+
+    @Override
+    public Match<T> apply(Object object, Captures captures, MatchContext context) {
+        MatchFunction<Object, T> promoted = this.promoted;
+        if (promoted != null) {
+            return promoted.apply(object, captures, context);
+        }
+        if (++evaluations >= threshold && promotionSubmitted.compareAndSet(false, true)) {
+            submitPromotion();
+        }
+        return interpreted.apply(object, captures, context);
+    }
+
+    private void submitPromotion() {
+        try {
+            executor.execute(this::promote);
+        } catch (RejectedExecutionException e) {
+            //the matcher stays interpreted, with no further attempts
+            promoted = interpreted;
+        }
+    }
+
+    private void promote() {
+        MatchFunction<Object, T> compiled;
+        try {
+            compiled = MatchGuard.promote(matcher, interpreted);
+        } catch (RuntimeException e) {
+            promoted = interpreted;
+            throw e;
+        }
+        promoted = compiled == interpreted ?
+                interpreted :
+                (object, captures, context) -> context.isBounded() || context.getProfiler() != null ?
+                        interpreted.apply(object, captures, context) :
+                        compiled.apply(object, captures, context);
+    }
+
+    boolean isPromoted() {
+        return promoted != null;
+    }
+}
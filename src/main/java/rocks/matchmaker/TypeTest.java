@@ -0,0 +1,59 @@
+package rocks.matchmaker;
+
+/**
+ * The instance test of {@link Matcher#typeOf(Class)} and {@link Matcher#nullable(Class)}.
+ * <p>
+ * Testing against a class is a constant-time check of the object's class hierarchy. Testing against an interface
+ * means searching the interfaces the object's class implements, and HotSpot caches only the last interface searched for
+ * per class. With many interface tests of the same classes, as in the cases of a pattern match over a hierarchy of nodes,
+ * that cache keeps missing (and, being shared, gets written by all the threads), so interface tests are cached per interface:
+ * in a {@link ClassValue}, answered by a hash lookup in the tested class. The cache is shared by all the tests of the interface.
+ */
+abstract class TypeTest {
+
+    private static final ClassValue<TypeTest> INTERFACE_TESTS = new ClassValue<TypeTest>() {
+        @Override
+        protected TypeTest computeValue(Class<?> type) {
+            return new InterfaceTest(type);
+        }
+    };
+
+    static TypeTest of(Class<?> type) {
+        return type.isInterface() ? INTERFACE_TESTS.get(type) : new ClassTest(type);
+    }
+
+    abstract boolean test(Object object);
+
+    private static final class ClassTest extends TypeTest {
+
+        private final Class<?> type;
+
+        private ClassTest(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        boolean test(Object object) {
+            return type.isInstance(object);
+        }
+    }
+
+    private static final class InterfaceTest extends TypeTest {
+
+        private final ClassValue<Boolean> implementations;
+
+        private InterfaceTest(Class<?> type) {
+            this.implementations = new ClassValue<Boolean>() {
+                @Override
+                protected Boolean computeValue(Class<?> tested) {
+                    return type.isAssignableFrom(tested);
+                }
+            };
+        }
+
+        @Override
+        boolean test(Object object) {
+            return object != null && implementations.get(object.getClass());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package rocks.matchmaker.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Wraps a (lazy) iterator so that it can be iterated over many times,
+ * while the underlying iterator is still only advanced on demand and at most once per element.
+ * Not thread-safe.
+ */
+public class MemoizingIterable<T> implements Iterable<T> {
+
+    private final Iterator<T> source;
+    private final List<T> computed = new ArrayList<>();
+
+    public MemoizingIterable(Iterator<T> source) {
+        this.source = Util.checkNotNull(source);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < computed.size() || source.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (position == computed.size()) {
+                    if (!source.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    computed.add(source.next());
+                }
+                return computed.get(position++);
+            }
+        };
+    }
+}
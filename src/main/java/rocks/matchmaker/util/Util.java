@@ -1,12 +1,10 @@
 package rocks.matchmaker.util;
 
 import com.google.common.base.Preconditions;
-import com.google.common.reflect.TypeToken;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Stream;
 
 public class Util {
 
@@ -23,10 +21,6 @@ public class Util {
         return value;
     }
 
-    public static Stream<Class<?>> supertypes(Class<?> type) {
-        return TypeToken.of(type).getTypes().stream().map(TypeToken::getRawType);
-    }
-
     public static void checkArgument(boolean expression, String message) {
         Preconditions.checkArgument(expression, message);
     }
@@ -0,0 +1,27 @@
+package rocks.matchmaker;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("rocks.matchmaker.Match")
+@Label("Match")
+@Description("A top-level Matcher.match evaluation")
+@Category("Matchmaker")
+@Threshold("1 ms")
+@StackTrace(true)
+class MatchEvent extends Event {
+
+    @Label("Scope Type")
+    Class<?> scopeType;
+
+    @Label("Object Type")
+    Class<?> objectType;
+
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,93 @@
+package rocks.matchmaker;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hooks for reporting match evaluations to external observers.
+ * <p>
+ * This is the Java 11+ implementation, emitting Java Flight Recorder events.
+ * Each hook checks whether its event is enabled first, so there's no cost beyond
+ * that check when nothing is being recorded.
+ */
+final class MatchEvents {
+
+    //checked on every memo lookup, which has no event of its own to ask
+    private static final EventType MATCH_STATISTICS = EventType.getEventType(MatchStatisticsEvent.class);
+    private static final LongAdder memoLookups = new LongAdder();
+    private static final LongAdder memoHits = new LongAdder();
+
+    static {
+        FlightRecorder.addPeriodicEvent(MatchStatisticsEvent.class, () -> {
+            MatchStatisticsEvent event = new MatchStatisticsEvent();
+            event.memoLookups = memoLookups.sum();
+            event.memoHits = memoHits.sum();
+            event.commit();
+        });
+    }
+
+    private MatchEvents() {}
+
+    static <T> Match<T> match(Matcher<T> matcher, Object object, Captures captures, MatchContext context) {
+        MatchEvent event = new MatchEvent();
+        if (!event.isEnabled()) {
+            return matcher.match(object, captures, context);
+        }
+        event.begin();
+        Match<T> match = matcher.match(object, captures, context);
+        event.end();
+        if (event.shouldCommit()) {
+            event.scopeType = matcher.getScopeType();
+            event.objectType = object == null ? null : object.getClass();
+            event.outcome = outcome(match, context);
+            event.commit();
+        }
+        return match;
+    }
+
+    static <R> Match<R> evaluateCase(int caseIndex, Matcher<R> matcher, Object object, int candidates, MatchContext context) {
+        PatternMatchEvent event = new PatternMatchEvent();
+        if (!event.isEnabled()) {
+            return matcher.match(object, Captures.empty(), context);
+        }
+        event.begin();
+        Match<R> match = matcher.match(object, Captures.empty(), context);
+        event.end();
+        if (event.shouldCommit()) {
+            event.caseIndex = caseIndex;
+            event.scopeType = matcher.getScopeType();
+            event.objectType = object == null ? null : object.getClass();
+            event.candidates = candidates;
+            event.outcome = outcome(match, context);
+            event.commit();
+        }
+        return match;
+    }
+
+    static void memoLookup(boolean hit) {
+        if (MATCH_STATISTICS.isEnabled()) {
+            memoLookups.increment();
+            if (hit) {
+                memoHits.increment();
+            }
+        }
+    }
+
+    static void unreachableCase(int caseIndex, int subsumingCaseIndex) {
+        UnreachableCaseEvent event = new UnreachableCaseEvent();
+        if (event.shouldCommit()) {
+            event.caseIndex = caseIndex;
+            event.subsumingCaseIndex = subsumingCaseIndex;
+            event.commit();
+        }
+    }
+
+    private static String outcome(Match<?> match, MatchContext context) {
+        if (match.isPresent()) {
+            return "MATCH";
+        }
+        return match.isExhausted() || context.isExhausted() ? "EXHAUSTED" : "NO_MATCH";
+    }
+}
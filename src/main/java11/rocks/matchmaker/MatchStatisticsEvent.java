@@ -0,0 +1,25 @@
+package rocks.matchmaker;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+@Name("rocks.matchmaker.MatchStatistics")
+@Label("Match Statistics")
+@Description("Cumulative statistics of matchmaker's caches, counted while this event is enabled")
+@Category("Matchmaker")
+@Period("1 s")
+@StackTrace(false)
+class MatchStatisticsEvent extends Event {
+
+    @Label("Memo Lookups")
+    @Description("Lookups of repeated subproblems in backtracking evaluations")
+    long memoLookups;
+
+    @Label("Memo Hits")
+    long memoHits;
+}
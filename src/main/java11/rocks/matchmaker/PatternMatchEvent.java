@@ -0,0 +1,35 @@
+package rocks.matchmaker;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("rocks.matchmaker.PatternMatch")
+@Label("Pattern Match Case")
+@Description("An evaluation of a single PatternMatch case")
+@Category("Matchmaker")
+@Threshold("1 ms")
+@StackTrace(false)
+class PatternMatchEvent extends Event {
+
+    @Label("Case Index")
+    int caseIndex;
+
+    @Label("Scope Type")
+    @Description("The scope type of the case's matcher")
+    Class<?> scopeType;
+
+    @Label("Object Type")
+    Class<?> objectType;
+
+    @Label("Candidates")
+    @Description("Number of cases tried for the object after narrowing them down by scope type")
+    int candidates;
+
+    @Label("Outcome")
+    String outcome;
+}
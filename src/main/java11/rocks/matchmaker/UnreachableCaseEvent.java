@@ -0,0 +1,21 @@
+package rocks.matchmaker;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("rocks.matchmaker.UnreachableCase")
+@Label("Unreachable Case")
+@Description("A PatternMatch case dropped when compiling, as an earlier case matches whenever it does")
+@Category("Matchmaker")
+class UnreachableCaseEvent extends Event {
+
+    @Label("Case Index")
+    int caseIndex;
+
+    @Label("Subsuming Case Index")
+    @Description("The index of the earlier case matching whenever the unreachable one does")
+    int subsumingCaseIndex;
+}
@@ -0,0 +1,44 @@
+package rocks.matchmaker;
+
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Discovery of sealed class hierarchies.
+ * <p>
+ * This is the Java 17+ implementation, walking {@link Class#getPermittedSubclasses()}.
+ */
+final class SealedHierarchies {
+
+    private SealedHierarchies() {}
+
+    static Set<Class<?>> leafClasses(Class<?> type) {
+        Set<Class<?>> leafClasses = new LinkedHashSet<>();
+        return collectLeafClasses(type, leafClasses) ? Collections.unmodifiableSet(leafClasses) : null;
+    }
+
+    /**
+     * @return false if the type's hierarchy isn't closed, i.e. it has (or may have) non-sealed subclasses
+     */
+    private static boolean collectLeafClasses(Class<?> type, Set<Class<?>> leafClasses) {
+        if (type.isSealed()) {
+            if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+                leafClasses.add(type);
+            }
+            for (Class<?> subclass : type.getPermittedSubclasses()) {
+                if (!collectLeafClasses(subclass, leafClasses)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        //records are final
+        if (Modifier.isFinal(type.getModifiers()) && !type.isArray()) {
+            leafClasses.add(type);
+            return true;
+        }
+        return false;
+    }
+}
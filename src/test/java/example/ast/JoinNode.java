@@ -8,15 +8,17 @@ public class JoinNode implements PlanNode {
 
     private PlanNode probe;
     private PlanNode build;
+    private List<PlanNode> sources;
 
     public JoinNode(PlanNode probe, PlanNode build) {
         this.probe = probe;
         this.build = build;
+        this.sources = asList(probe, build);
     }
 
     @Override
     public List<PlanNode> getSources() {
-        return asList(probe, build);
+        return sources;
     }
 
     public PlanNode getProbe() {
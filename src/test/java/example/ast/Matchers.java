@@ -4,20 +4,30 @@ import rocks.matchmaker.Matcher;
 import rocks.matchmaker.Property;
 
 import static rocks.matchmaker.Matcher.typeOf;
+import static rocks.matchmaker.Property.anyElement;
+import static rocks.matchmaker.Property.elementAt;
+import static rocks.matchmaker.Property.everyElement;
 import static rocks.matchmaker.Property.property;
+import static rocks.matchmaker.Property.size;
 
 public class Matchers {
 
+    //properties are compared by identity (see Matcher#equals), so that equal patterns use the same ones
+    private static final Property<JoinNode, PlanNode> BUILD = property(JoinNode::getBuild).named("build");
+    private static final Property<JoinNode, PlanNode> PROBE = property(JoinNode::getProbe).named("probe");
+    private static final Property<ScanNode, String> TABLE_NAME = property(ScanNode::getTableName).named("tableName");
+    private static final Property<SingleSourcePlanNode, PlanNode> SOURCE = property(SingleSourcePlanNode::getSource).named("source");
+
     public static Matcher<JoinNode> join() {
         return typeOf(JoinNode.class);
     }
 
     public static Property<JoinNode, PlanNode> build() {
-        return property(JoinNode::getBuild);
+        return BUILD;
     }
 
     public static Property<JoinNode, PlanNode> probe() {
-        return property(JoinNode::getProbe);
+        return PROBE;
     }
 
     public static Matcher<ScanNode> scan() {
@@ -37,10 +47,26 @@ public class Matchers {
     }
 
     public static Property<ScanNode, String> tableName() {
-        return property(ScanNode::getTableName);
+        return TABLE_NAME;
     }
 
     public static Property<SingleSourcePlanNode, PlanNode> source() {
-        return property(SingleSourcePlanNode::getSource);
+        return SOURCE;
+    }
+
+    public static Property<PlanNode, PlanNode> anySource() {
+        return anyElement(PlanNode::getSources).named("anySource");
+    }
+
+    public static Property<PlanNode, PlanNode> allSources() {
+        return everyElement(PlanNode::getSources).named("allSources");
+    }
+
+    public static Property<PlanNode, PlanNode> sourceAt(int index) {
+        return elementAt(PlanNode::getSources, index).named("sourceAt(" + index + ")");
+    }
+
+    public static Property<PlanNode, Integer> sourcesCount() {
+        return size(PlanNode::getSources).named("sourcesCount");
     }
 }
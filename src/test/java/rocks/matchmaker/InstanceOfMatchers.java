@@ -0,0 +1,19 @@
+package rocks.matchmaker;
+
+/**
+ * Type tests built like {@link Matcher#typeOf(Class)}, as a single step, but with a plain {@link Class#isInstance(Object)}
+ * instead of a {@link TypeTest}: the baseline of {@link rocks.matchmaker.benchmark.TypeTestBenchmark}.
+ */
+public final class InstanceOfMatchers {
+
+    private InstanceOfMatchers() {}
+
+    //the type test makes the cast safe
+    @SuppressWarnings("unchecked cast")
+    public static <T> Matcher<T> isInstance(Class<T> expectedClass) {
+        MatchFunction<Object, T> matchFunction = (x, captures, context) -> context.tryStep() && expectedClass.isInstance(x) ?
+                Match.of((T) x, captures) :
+                Match.empty();
+        return new Matcher<>(expectedClass, StepProfiler.profiled("isInstance(" + expectedClass.getSimpleName() + ")", matchFunction), null);
+    }
+}
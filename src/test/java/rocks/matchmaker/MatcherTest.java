@@ -1,19 +1,42 @@
 package rocks.matchmaker;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import example.ast.Exchange;
+import example.ast.Expression;
 import example.ast.FilterNode;
 import example.ast.JoinNode;
 import example.ast.PlanNode;
 import example.ast.ProjectNode;
 import example.ast.ScanNode;
+import example.ast.SingleSourcePlanNode;
 import org.junit.jupiter.api.Test;
 
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+import static example.ast.Matchers.allSources;
+import static example.ast.Matchers.anySource;
 import static example.ast.Matchers.build;
 import static example.ast.Matchers.filter;
 import static example.ast.Matchers.join;
@@ -22,12 +45,21 @@ import static example.ast.Matchers.probe;
 import static example.ast.Matchers.project;
 import static example.ast.Matchers.scan;
 import static example.ast.Matchers.source;
+import static example.ast.Matchers.sourceAt;
+import static example.ast.Matchers.sourcesCount;
 import static example.ast.Matchers.tableName;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static rocks.matchmaker.Capture.newCapture;
 import static rocks.matchmaker.Matcher.any;
 import static rocks.matchmaker.Matcher.equalTo;
@@ -100,6 +132,32 @@ public class MatcherTest {
         assertNoMatch(aString.with(self().equalTo("b")), string);
     }
 
+    @Test
+    void field_and_getter_properties() {
+        Capture<String> table = newCapture();
+        Property<ScanNode, String> tableNameField = Property.field(ScanNode.class, "tableName");
+        Property<SingleSourcePlanNode, PlanNode> sourceGetter = Property.getter(SingleSourcePlanNode.class, "getSource");
+        ScanNode scan = new ScanNode("orders");
+
+        assertMatch(scan().with(tableNameField.equalTo("orders")), scan);
+        assertNoMatch(scan().with(tableNameField.equalTo("lineitem")), scan);
+        assertEquals("orders", assertMatch(scan().with(tableNameField.capturedAs(table)), scan).capture(table));
+        assertMatch(project().with(sourceGetter.matching(scan())), new ProjectNode(scan));
+        assertMatch(filter().with(sourceGetter.matching(scan())), new FilterNode(scan, null));
+        assertNoMatch(filter().with(sourceGetter.matching(project())), new FilterNode(scan, null));
+        assertMatch(scan().with(Property.getter(ScanNode.class, "getTableName").matching(StringMatchers.startsWith("ord"))), scan);
+
+        //null values are passed on, like with lambda properties
+        Property<FilterNode, Expression> predicate = Property.field(FilterNode.class, "predicate");
+        assertMatch(filter().with(predicate.matching(isNull())), new FilterNode(scan, null));
+        assertNoMatch(filter().with(predicate.matching(typeOf(Expression.class))), new FilterNode(scan, null));
+        assertNoMatch(project().with(sourceGetter.matching(scan())), new ProjectNode(null));
+
+        assertEquals(scan().with(tableNameField.equalTo("orders")), scan().with(Property.field(ScanNode.class, "tableName").equalTo("orders")));
+        assertThrows(IllegalArgumentException.class, () -> Property.field(ScanNode.class, "table"));
+        assertThrows(IllegalArgumentException.class, () -> Property.getter(ScanNode.class, "tableName"));
+    }
+
     @Test
     void match_nested_properties() {
         Matcher<ProjectNode> matcher = project().with(source().matching(scan()));
@@ -156,6 +214,146 @@ public class MatcherTest {
         assertNoMatch(planNodeWithExactlyOneSource, new JoinNode(new ScanNode("t"), new ScanNode("t")));
     }
 
+    @Test
+    void list_properties() {
+        Capture<ScanNode> scan = newCapture();
+        ScanNode orders = new ScanNode("orders");
+        ScanNode lineitem = new ScanNode("lineitem");
+        Exchange exchange = new Exchange(new FilterNode(orders, null), orders, lineitem);
+
+        Match<Exchange> anyScan = assertMatch(typeOf(Exchange.class).with(anySource().matching(scan().capturedAs(scan))), exchange);
+        assertEquals(orders, anyScan.capture(scan));
+        Match<Exchange> anyLineitemScan = assertMatch(typeOf(Exchange.class)
+                .with(anySource().matching(scan().capturedAs(scan).with(tableName().equalTo("lineitem")))), exchange);
+        assertEquals(lineitem, anyLineitemScan.capture(scan));
+        assertNoMatch(plan().with(anySource().matching(join())), exchange);
+        assertNoMatch(plan().with(anySource().matching(any())), orders);
+
+        assertMatch(plan().with(allSources().matching(scan())), new JoinNode(orders, lineitem));
+        assertMatch(plan().with(allSources().matching(join())), orders);
+        assertNoMatch(plan().with(allSources().matching(scan())), exchange);
+
+        assertMatch(plan().with(sourceAt(2).equalTo(lineitem)), exchange);
+        assertNoMatch(plan().with(sourceAt(1).matching(filter())), exchange);
+        assertNoMatch(plan().with(sourceAt(3).matching(any())), exchange);
+
+        assertMatch(plan().with(sourcesCount().equalTo(3)), exchange);
+        assertMatch(plan().with(sourcesCount().equalTo(0)), orders);
+        assertNoMatch(plan().with(sourcesCount().matching(count -> count > 1)), new ProjectNode(orders));
+    }
+
+    @Test
+    void backtracking_over_list_elements() {
+        Capture<String> table = newCapture();
+        Capture<ScanNode> other = newCapture();
+        Matcher<Exchange> filteredAndScannedTable = typeOf(Exchange.class)
+                .with(anySource().matching(filter()
+                        .with(source().matching(scan().with(tableName().capturedAs(table))))))
+                .with(anySource().matching(scan().capturedAs(other)
+                        .with(tableName().matching((name, captures) -> Option.of(name).filter(captures.get(table)::equals)))));
+
+        ScanNode orders = new ScanNode("orders");
+        Exchange exchange = new Exchange(
+                new FilterNode(new ScanNode("lineitem"), null),
+                new FilterNode(new ScanNode("orders"), null),
+                new ScanNode("part"),
+                orders);
+
+        //the single match commits to the first filter and doesn't look further
+        assertNoMatch(filteredAndScannedTable, exchange);
+
+        Iterator<Match<Exchange>> matches = filteredAndScannedTable.allMatches(exchange);
+        Match<Exchange> match = matches.next();
+        assertEquals(exchange, match.value());
+        assertEquals("orders", match.capture(table));
+        assertEquals(orders, match.capture(other));
+        assertFalse(matches.hasNext());
+
+        assertFalse(filteredAndScannedTable.allMatches(new Exchange(orders)).hasNext());
+    }
+
+    @Test
+    void backtracking_enumerates_all_bindings() {
+        Capture<PlanNode> first = newCapture();
+        Capture<PlanNode> second = newCapture();
+        ScanNode a = new ScanNode("a");
+        ScanNode b = new ScanNode("b");
+        JoinNode join = new JoinNode(a, b);
+
+        Matcher<PlanNode> pairs = plan()
+                .with(anySource().matching(plan().capturedAs(first)))
+                .with(anySource().matching(plan().capturedAs(second)));
+
+        List<List<PlanNode>> bindings = new ArrayList<>();
+        pairs.allMatches(join).forEachRemaining(match -> bindings.add(asList(match.capture(first), match.capture(second))));
+        assertEquals(asList(asList(a, a), asList(a, b), asList(b, a), asList(b, b)), bindings);
+
+        //captures of abandoned alternatives don't leak into the following ones
+        Matcher<PlanNode> distinctPairs = pairs.matching((node, captures) ->
+                Option.of(node).filter(__ -> captures.get(first) != captures.get(second)));
+        List<PlanNode> firsts = new ArrayList<>();
+        distinctPairs.allMatches(join).forEachRemaining(match -> firsts.add(match.capture(first)));
+        assertEquals(asList(a, b), firsts);
+    }
+
+    @Test
+    void backtracking_evaluates_repeated_subproblems_once() {
+        List<PlanNode> evaluated = new ArrayList<>();
+        Matcher<PlanNode> countingScan = scan().matching((node, captures) -> {
+            evaluated.add(node);
+            return Option.of(node);
+        });
+        Exchange exchange = new Exchange(new ScanNode("a"), new ScanNode("b"), new ScanNode("c"));
+
+        //the first condition binds nothing, so the second one sees the same subproblems for each of its alternatives
+        Matcher<PlanNode> matcher = plan()
+                .with(anySource().matching(any()))
+                .with(anySource().matching(countingScan));
+
+        Iterator<Match<PlanNode>> matches = matcher.allMatches(exchange);
+        int count = 0;
+        while (matches.hasNext()) {
+            matches.next();
+            count++;
+        }
+        assertEquals(9, count);
+        assertEquals(exchange.getSources(), evaluated);
+    }
+
+    @Test
+    void match_budget() {
+        Exchange wide = new Exchange(new ScanNode("a"), new ScanNode("b"), new ScanNode("c"), new ScanNode("d"));
+        Matcher<PlanNode> lastSourceIsJoin = plan().with(anySource().matching(join()));
+        Matcher<PlanNode> someSourceIsScan = plan().with(anySource().matching(scan()));
+
+        MatchBudget budget = MatchBudget.steps(4);
+        assertTrue(lastSourceIsJoin.match(wide, budget).isExhausted());
+        assertEquals(1, budget.getExhaustedCount());
+        assertTrue(lastSourceIsJoin.match(wide, MatchBudget.steps(100)).isEmpty());
+        assertFalse(lastSourceIsJoin.match(wide, MatchBudget.steps(100)).isExhausted());
+        assertMatch(someSourceIsScan.withBudget(budget), wide);
+        assertEquals(1, budget.getExhaustedCount());
+
+        Throwable throwable = assertThrows(NoSuchElementException.class, () -> lastSourceIsJoin.match(wide, budget).value());
+        assertTrue(throwable.getMessage().contains("budget exhausted"));
+        assertEquals(2, budget.getExhaustedCount());
+
+        //budgets are configured per rule set
+        Matcher<String> ruleSet = matchFor(PlanNode.class, String.class)
+                .caseOf(plan().with(anySource().matching(join()))).returns(() -> "join below")
+                .caseOf(plan().with(anySource().matching(filter()))).returns(() -> "filter below")
+                .caseOf(plan()).returns(() -> "other")
+                .returnFirst();
+        assertMatch(ruleSet, wide, "other");
+        assertTrue(ruleSet.withBudget(MatchBudget.steps(10)).match(wide).isExhausted());
+        assertMatch(ruleSet.withBudget(MatchBudget.duration(Duration.ofMinutes(1))), wide, "other");
+
+        //backtracking evaluation reports the exhaustion as its last element
+        Iterator<Match<PlanNode>> matches = lastSourceIsJoin.withBudget(MatchBudget.steps(4)).allMatches(wide);
+        assertTrue(matches.next().isExhausted());
+        assertFalse(matches.hasNext());
+    }
+
     @Test
     void capturing_matches_in_a_typesafe_manner() {
         Capture<FilterNode> filter = newCapture();
@@ -304,6 +502,139 @@ public class MatcherTest {
         assertNoMatch(passwordProperties, "!@#$%");
     }
 
+    @Test
+    void pattern_matching_for_lowest_cost_result() {
+        List<PlanNode> evaluatedExpensiveCases = new ArrayList<>();
+        PatternMatch<PlanNode, Integer> rewrites = matchFor(PlanNode.class, Integer.class)
+                .caseOf(plan()).returns(() -> 5)
+                .caseOf(join().matching(join -> evaluatedExpensiveCases.add(join))).withCostAtLeast(8).returns(() -> 8)
+                .caseOf(filter()).withCostAtLeast(3).returns(() -> 3)
+                .caseOf(filter().with(source().matching(scan()))).withCostAtLeast(1).returns(() -> 1)
+                .caseOf(project()).withCostAtLeast(6).returns(() -> 7);
+        Matcher<Integer> cheapestRewrite = rewrites.returnBest(cost -> cost);
+
+        ScanNode scan = new ScanNode("orders");
+        assertMatch(cheapestRewrite, new JoinNode(scan, scan), 5);
+        assertEquals(emptyList(), evaluatedExpensiveCases);
+        assertMatch(cheapestRewrite, new FilterNode(scan, null), 1);
+        assertMatch(cheapestRewrite, new FilterNode(new ProjectNode(scan), null), 3);
+        assertMatch(cheapestRewrite, new ProjectNode(scan), 5);
+        assertNoMatch(cheapestRewrite, null);
+        assertEquals(Integer.valueOf(5), cheapestRewrite.matchAsync(new JoinNode(scan, scan)).join().value());
+        assertEquals(emptyList(), evaluatedExpensiveCases);
+
+        //without the cheaper cases, the expensive ones are evaluated
+        Matcher<Integer> joinRewrite = matchFor(PlanNode.class, Integer.class)
+                .caseOf(join().matching(join -> evaluatedExpensiveCases.add(join))).withCostAtLeast(8).returns(() -> 8)
+                .caseOf(join()).withCostAtLeast(9).returns(() -> 9)
+                .returnBest(cost -> cost);
+        assertMatch(joinRewrite, new JoinNode(scan, scan), 8);
+        assertEquals(1, evaluatedExpensiveCases.size());
+
+        Matcher<Integer> wrongBound = matchFor(PlanNode.class, Integer.class)
+                .caseOf(scan()).withCostAtLeast(2).returns(() -> 1)
+                .returnBest(cost -> cost);
+        assertThrows(IllegalStateException.class, () -> wrongBound.match(scan));
+    }
+
+    @Test
+    void string_matchers() {
+        assertMatch(StringMatchers.startsWith("foo"), "foobar");
+        assertNoMatch(StringMatchers.startsWith("bar"), "foobar");
+        assertMatch(StringMatchers.endsWith("bar"), "foobar");
+        assertNoMatch(StringMatchers.endsWith("foo"), "foobar");
+        assertMatch(StringMatchers.contains("oba"), "foobar");
+        assertNoMatch(StringMatchers.contains("baz"), "foobar");
+        assertMatch(StringMatchers.matchesRegex("fo+bar"), "foobar");
+        assertNoMatch(StringMatchers.matchesRegex("fo+"), "foobar");
+        assertMatch(StringMatchers.containsRegex("o+b"), "foobar");
+        assertNoMatch(StringMatchers.containsRegex("o+z"), "foobar");
+        assertNoMatch(StringMatchers.contains(""), 42);
+
+        Matcher<List<PasswordProperty>> passwordProperties = matchFor(String.class, PasswordProperty.class)
+                .caseOf(StringMatchers.containsRegex("[A-Z]")).returns(() -> has_uppercase)
+                .caseOf(StringMatchers.containsRegex("[a-z]")).returns(() -> has_lowercase)
+                .caseOf(StringMatchers.containsRegex("[0-9]")).returns(() -> has_digits)
+                .caseOf(StringMatchers.matchesRegex(".{8,}")).returns(() -> length_at_least_8)
+                .returningAll();
+        assertMatch(passwordProperties, "FooBar", asList(has_uppercase, has_lowercase));
+        assertMatch(passwordProperties, "aProperPassword111", asList(has_uppercase, has_lowercase, has_digits, length_at_least_8));
+        assertNoMatch(passwordProperties, "!@#$%");
+    }
+
+    @Test
+    void many_literal_string_cases() {
+        Capture<String> captured = newCapture();
+        List<Matcher<String>> literalCases = asList(
+                StringMatchers.contains("he"),
+                StringMatchers.contains("she"),
+                StringMatchers.contains("his"),
+                StringMatchers.contains("hers"),
+                StringMatchers.startsWith("ushe"),
+                StringMatchers.startsWith(""),
+                StringMatchers.endsWith("rs"),
+                StringMatchers.endsWith("é"),
+                StringMatchers.contains("").capturedAs(captured),
+                StringMatchers.matchesRegex("u.*s"),
+                equalTo("she"),
+                equalTo(""),
+                StringMatchers.contains("zażółć"),
+                StringMatchers.startsWith("h").capturedAs(captured),
+                StringMatchers.endsWith(""));
+        //the same cases, as predicates not recognized as literal tests
+        List<Predicate<String>> predicates = asList(
+                s -> s.contains("he"),
+                s -> s.contains("she"),
+                s -> s.contains("his"),
+                s -> s.contains("hers"),
+                s -> s.startsWith("ushe"),
+                s -> s.startsWith(""),
+                s -> s.endsWith("rs"),
+                s -> s.endsWith("é"),
+                s -> s.contains(""),
+                s -> s.matches("u.*s"),
+                s -> s.equals("she"),
+                s -> s.isEmpty(),
+                s -> s.contains("zażółć"),
+                s -> s.startsWith("h"),
+                s -> s.endsWith(""));
+
+        PatternMatch<String, Integer> literalMatch = matchFor(String.class, Integer.class);
+        PatternMatch<String, Integer> predicateMatch = matchFor(String.class, Integer.class);
+        for (int i = 0; i < literalCases.size(); i++) {
+            int result = i;
+            literalMatch.caseOf(literalCases.get(i)).returns(() -> result);
+            predicateMatch.caseOf(predicates.get(i)).returns(() -> result);
+        }
+        //null isn't a string, so it's matched by the other cases only
+        literalMatch.caseOf(isNull()).returns(() -> -1);
+        predicateMatch.caseOf(isNull()).returns(() -> -1);
+        CompiledPatternMatch<String, Integer> literalCompiled = literalMatch.compile();
+        CompiledPatternMatch<String, Integer> predicateCompiled = predicateMatch.compile();
+
+        for (String string : asList("ushers", "she", "", "his", "hers", "rs", "café", "zażółć gęślą jaźń", "x", "hishe", "sh", "ushe")) {
+            assertEquals(predicateCompiled.returningAll().match(string).orElse(emptyList()), literalCompiled.returningAll().match(string).orElse(emptyList()), string);
+            assertEquals(predicateCompiled.returnFirst().match(string).orElse(null), literalCompiled.returnFirst().match(string).orElse(null), string);
+        }
+        assertEquals(asList(0, 1, 3, 4, 5, 6, 8, 9, 14), literalCompiled.returningAll().match("ushers").value());
+        assertEquals(Integer.valueOf(-1), literalCompiled.returnFirst().match(null).value());
+    }
+
+    @Test
+    void empty_literal_string_cases() {
+        CompiledPatternMatch<String, String> compiled = matchFor(String.class, String.class)
+                .caseOf(StringMatchers.startsWith("x")).returns(() -> "startsWith x")
+                .caseOf(StringMatchers.contains("y")).returns(() -> "contains y")
+                .caseOf(StringMatchers.contains("z")).returns(() -> "contains z")
+                .caseOf(StringMatchers.endsWith("")).returns(() -> "endsWith empty")
+                .caseOf(equalTo("")).returns(() -> "empty")
+                .compile();
+
+        assertEquals("endsWith empty", compiled.returnFirst().match("abc").value());
+        assertEquals(singletonList("endsWith empty"), compiled.returningAll().match("abc").value());
+        assertEquals(asList("endsWith empty", "empty"), compiled.returningAll().match("").value());
+    }
+
     enum PasswordProperty {
         has_uppercase, has_lowercase, has_digits, length_at_least_8
     }
@@ -353,6 +684,735 @@ public class MatcherTest {
                 Void.class, String.class, Integer.class, Number.class, Double.class, CharSequence.class, String.class);
     }
 
+    @Test
+    void compiled_pattern_match() throws Exception {
+        PatternMatch<PlanNode, String> patternMatch = matchFor(PlanNode.class, String.class)
+                .caseOf(scan().with(tableName().equalTo("orders"))).returns(() -> "orders")
+                .caseOf(join()).returns(() -> "join");
+        CompiledPatternMatch<PlanNode, String> compiled = patternMatch.compile();
+        patternMatch.caseOf(plan()).returns(() -> "plan");
+
+        //later cases don't affect the compiled snapshot
+        assertEquals(2, compiled.size());
+        assertTrue(compiled.returnFirst() == compiled.returnFirst());
+        assertNoMatch(compiled.returnFirst(), new ProjectNode(null));
+        assertMatch(patternMatch.returnFirst(), new ProjectNode(null), "plan");
+
+        //shared by many threads
+        List<PlanNode> nodes = asList(new ScanNode("orders"), new JoinNode(null, null), new ScanNode("lineitem"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    List<String> threadResults = new ArrayList<>();
+                    for (int j = 0; j < 1000; j++) {
+                        threadResults.add(compiled.returnFirst().match(nodes.get(j % nodes.size())).orElse("none"));
+                    }
+                    return threadResults;
+                }));
+            }
+            for (Future<List<String>> result : results) {
+                List<String> threadResults = result.get();
+                for (int j = 0; j < threadResults.size(); j++) {
+                    assertEquals(asList("orders", "join", "none").get(j % nodes.size()), threadResults.get(j));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void rule_set_updates() {
+        RuleSet<PlanNode, String> ruleSet = matchFor(PlanNode.class, String.class)
+                .caseOf(scan().with(tableName().equalTo("orders"))).returns(() -> "orders")
+                .toRuleSet();
+        RuleSet.Rule orders = ruleSet.getRules().get(0);
+        Matcher<String> first = ruleSet.returnFirst();
+        Matcher<List<String>> all = ruleSet.returningAll();
+        CompiledPatternMatch<PlanNode, String> initial = ruleSet.snapshot();
+
+        RuleSet.Rule scans = ruleSet.add(scan(), () -> "scan");
+        RuleSet.Rule plans = ruleSet.add(plan(), () -> "plan");
+        assertEquals(asList(orders, scans, plans), ruleSet.getRules());
+        assertMatch(first, new ScanNode("orders"), "orders");
+        assertMatch(all, new ScanNode("orders"), asList("orders", "scan", "plan"));
+        assertMatch(first, new JoinNode(null, null), "plan");
+
+        //a replaced rule keeps its position, even if its scope type changes
+        ruleSet.replace(orders, join(), () -> "join");
+        assertMatch(all, new ScanNode("orders"), asList("scan", "plan"));
+        assertMatch(all, new JoinNode(null, null), asList("join", "plan"));
+
+        assertTrue(ruleSet.remove(scans));
+        assertFalse(ruleSet.remove(scans));
+        assertThrows(IllegalArgumentException.class, () -> ruleSet.replace(scans, scan(), () -> "scan"));
+        assertMatch(all, new ScanNode("orders"), asList("plan"));
+        assertEquals(asList(orders, plans), ruleSet.getRules());
+
+        //new rules go last
+        ruleSet.add(scan(), () -> "new scan");
+        assertMatch(all, new ScanNode("orders"), asList("plan", "new scan"));
+
+        //snapshots aren't affected by later changes
+        assertEquals(1, initial.size());
+        assertMatch(initial.returnFirst(), new ScanNode("orders"), "orders");
+        assertEquals(3, ruleSet.snapshot().size());
+    }
+
+    @Test
+    void structural_equality() {
+        Predicate<String> isEmpty = String::isEmpty;
+        assertEquals(typeOf(String.class), typeOf(String.class));
+        assertEquals(equalTo("a"), equalTo("a"));
+        assertEquals(typeOf(String.class).matching(isEmpty), typeOf(String.class).matching(isEmpty));
+        assertEquals(scan().with(tableName().equalTo("orders")).hashCode(), scan().with(tableName().equalTo("orders")).hashCode());
+        assertEquals(
+                project().with(source().matching(scan().with(tableName().equalTo("orders")))),
+                project().with(source().matching(scan().with(tableName().equalTo("orders")))));
+
+        assertFalse(equalTo("a").equals(equalTo("b")));
+        assertFalse(equalTo(1).equals(equalTo(1L)));
+        assertFalse(typeOf(String.class).matching(isEmpty).equals(typeOf(String.class).matching(isEmpty.negate())));
+        assertFalse(scan().with(tableName().equalTo("orders")).equals(scan().with(tableName().matching(isEmpty))));
+        assertFalse(scan().equals(scan().withBudget(MatchBudget.steps(10))));
+        //properties are compared by identity
+        assertFalse(typeOf(String.class).with(property(String::length).equalTo(1))
+                .equals(typeOf(String.class).with(property(String::length).equalTo(1))));
+    }
+
+    @Test
+    void matcher_interning() {
+        MatcherPool pool = MatcherPool.create();
+        Matcher<ProjectNode> projectOverOrders = pool.intern(project().with(source().matching(scan().with(tableName().equalTo("orders")))));
+        int interned = pool.size();
+
+        assertTrue(projectOverOrders == pool.intern(project().with(source().matching(scan().with(tableName().equalTo("orders"))))));
+        Matcher<ScanNode> ordersScan = pool.intern(scan().with(tableName().equalTo("orders")));
+        assertTrue(ordersScan == pool.intern(scan().with(tableName().equalTo("orders"))));
+        assertTrue(pool.intern(scan()) == pool.intern(scan()));
+        assertEquals(interned, pool.size());
+
+        pool.intern(scan().with(tableName().equalTo("lineitem")));
+        assertEquals(interned + 2, pool.size());
+        assertMatch(projectOverOrders, new ProjectNode(new ScanNode("orders")));
+
+        //equal sub-patterns of different rules are interned bottom-up, into the same objects
+        List<Matcher<?>> rules = asList(
+                join().with(probe().matching(scan().with(tableName().equalTo("orders")))),
+                join().with(build().matching(scan().with(tableName().equalTo("orders")))),
+                filter().with(source().matching(scan().with(tableName().equalTo("orders")))),
+                plan().with(anySource().matching(scan().with(tableName().equalTo("orders")))));
+        List<Matcher<?>> internedRules = rules.stream().map(pool::intern).collect(toList());
+        assertEquals(rules, internedRules);
+        assertTrue(ordersScan == internedRules.get(0).getSubMatchers().get(1));
+        assertTrue(ordersScan == internedRules.get(1).getSubMatchers().get(1));
+        assertTrue(internedRules.get(0).getPrevious() == internedRules.get(1).getPrevious());
+        assertTrue(projectOverOrders.getSubMatchers().get(1) == internedRules.get(2).getSubMatchers().get(1));
+        Matcher<?> anySourceMatcher = internedRules.get(3).getSubMatchers().get(1);
+        assertTrue(ordersScan == anySourceMatcher.getSubMatchers().get(0));
+        assertTrue(retainedMatchers(internedRules) < retainedMatchers(rules));
+        assertTrue(internedRules.get(3).match(new FilterNode(new ScanNode("orders"), null)).isPresent());
+        assertTrue(internedRules.get(3).match(new FilterNode(new ScanNode("lineitem"), null)).isEmpty());
+    }
+
+    //the number of distinct matcher objects the matchers are built of, themselves included
+    private static int retainedMatchers(List<Matcher<?>> matchers) {
+        Set<Matcher<?>> retained = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Matcher<?>> toVisit = new ArrayDeque<>(matchers);
+        while (!toVisit.isEmpty()) {
+            Matcher<?> matcher = toVisit.pop();
+            if (retained.add(matcher)) {
+                toVisit.addAll(matcher.getSubMatchers());
+            }
+        }
+        return retained.size();
+    }
+
+    @Test
+    void unreachable_cases() {
+        List<String> evaluated = new ArrayList<>();
+        Predicate<ScanNode> ordersTable = node -> evaluated.add(node.getTableName()) && node.getTableName().equals("orders");
+        CompiledPatternMatch<PlanNode, String> compiled = matchFor(PlanNode.class, String.class)
+                .caseOf(scan().matching(ordersTable)).returns(() -> "orders")
+                .caseOf(scan().matching(ordersTable).with(tableName().equalTo("lineitem"))).returns(() -> "unreachable")
+                .caseOf(filter().capturedAs(newCapture())).returns(() -> "filter")
+                .caseOf(filter().with(source().matching(scan()))).returns(() -> "unreachable")
+                .caseOf(nullable(JoinNode.class)).returns(() -> "join or null")
+                .caseOf(scan().matching(ordersTable.negate())).returns(() -> "other scan")
+                .caseOf(plan()).returns(() -> "plan")
+                .caseOf(join()).returns(() -> "unreachable")
+                .caseOf(project()).returns(() -> "unreachable")
+                .compile();
+
+        assertEquals(asList(1, 3, 7, 8), compiled.getUnreachableCases().stream()
+                .map(CompiledPatternMatch.UnreachableCase::getCaseIndex)
+                .collect(toList()));
+        assertEquals(asList(0, 2, 4, 6), compiled.getUnreachableCases().stream()
+                .map(CompiledPatternMatch.UnreachableCase::getSubsumingCaseIndex)
+                .collect(toList()));
+        assertEquals("case[1] is unreachable, as case[0] matches whenever it does", compiled.getUnreachableCases().get(0).toString());
+
+        assertMatch(compiled.returnFirst(), new ScanNode("lineitem"), "other scan");
+        assertEquals(asList("lineitem", "lineitem"), evaluated);
+        assertMatch(compiled.returnFirst(), new FilterNode(new ScanNode("orders"), null), "filter");
+        assertMatch(compiled.returnFirst(), new ProjectNode(null), "plan");
+        assertMatch(compiled.returnFirst(), null, "join or null");
+        //all the cases are still evaluated when returning all matches
+        assertMatch(compiled.returningAll(), new JoinNode(null, null), asList("join or null", "plan", "unreachable"));
+    }
+
+    @Test
+    void sequence_patterns() {
+        Capture<ScanNode> scanned = newCapture();
+        SequencePattern<PlanNode> scanThenFilter = SequencePattern.<PlanNode>sequenceOf()
+                .then(scan().capturedAs(scanned))
+                .then(filter().with(source().matching(scan().matching((ScanNode scan, Captures captures) ->
+                        Option.of(scan).filter(s -> s.getTableName().equals(captures.get(scanned).getTableName()))))), 3);
+        SequenceDetector<PlanNode> detector = scanThenFilter.detector();
+
+        ScanNode orders = new ScanNode("orders");
+        ScanNode lineitem = new ScanNode("lineitem");
+        FilterNode ordersFilter = new FilterNode(new ScanNode("orders"), null);
+        FilterNode lineitemFilter = new FilterNode(new ScanNode("lineitem"), null);
+        assertEquals(emptyList(), detector.accept(orders));
+        assertEquals(emptyList(), detector.accept(lineitem));
+        assertEquals(emptyList(), detector.accept(new ProjectNode(null)));
+        List<Match<List<PlanNode>>> detected = detector.accept(ordersFilter);
+        assertEquals(1, detected.size());
+        assertEquals(asList(orders, ordersFilter), detected.get(0).value());
+        assertEquals(orders, detected.get(0).capture(scanned));
+        assertEquals(asList(lineitem, lineitemFilter), detector.accept(lineitemFilter).get(0).value());
+        assertEquals(emptyList(), detector.accept(new ProjectNode(null)));
+        //too far from the scans
+        assertEquals(emptyList(), detector.accept(ordersFilter));
+        assertEquals(0, detector.getActiveRuns());
+
+        //every combination of matching events is detected
+        SequencePattern<PlanNode> scanThenJoin = SequencePattern.<PlanNode>sequenceOf().then(scan()).then(join());
+        SequenceDetector<PlanNode> joins = scanThenJoin.detector();
+        JoinNode join = new JoinNode(orders, lineitem);
+        joins.accept(orders);
+        joins.accept(lineitem);
+        assertEquals(
+                asList(asList(orders, join), asList(lineitem, join)),
+                joins.accept(join).stream().map(Match::value).collect(toList()));
+
+        //the oldest runs are dropped over the limit
+        SequenceDetector<PlanNode> boundedJoins = scanThenJoin.withMaxActiveRuns(1).detector();
+        boundedJoins.accept(orders);
+        boundedJoins.accept(lineitem);
+        assertEquals(asList(asList(lineitem, join)), boundedJoins.accept(join).stream().map(Match::value).collect(toList()));
+        assertEquals(1, boundedJoins.getDroppedRuns());
+
+        assertThrows(IllegalStateException.class, () -> SequencePattern.<PlanNode>sequenceOf().detector());
+    }
+
+    @Test
+    void parallel_streams() {
+        List<PlanNode> plans = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ScanNode scan = new ScanNode("t" + i % 3);
+            plans.add(i % 2 == 0 ? scan : new FilterNode(scan, null));
+        }
+        Matcher<FilterNode> t1Filter = filter().with(source().matching(scan().with(tableName().equalTo("t1"))));
+        List<PlanNode> expected = plans.stream()
+                .filter(plan -> plan instanceof FilterNode && ((ScanNode) ((FilterNode) plan).getSource()).getTableName().equals("t1"))
+                .collect(toList());
+
+        assertEquals(expected, t1Filter.filter(plans.stream()).collect(toList()));
+        assertEquals(expected, t1Filter.filter(plans.parallelStream()).collect(toList()));
+        assertTrue(t1Filter.filter(plans.parallelStream()).isParallel());
+        assertEquals(expected, plans.stream().collect(t1Filter.collector()));
+        assertEquals(expected, plans.parallelStream().collect(t1Filter.collector()));
+
+        Map<String, List<PlanNode>> classified = matchFor(PlanNode.class, String.class)
+                .caseOf(filter()).returns(() -> "filter")
+                .caseOf(scan().with(tableName().equalTo("t0"))).returns(() -> "t0 scan")
+                .classify(plans.spliterator());
+        assertEquals(asList("t0 scan", "filter"), new ArrayList<>(classified.keySet()));
+        assertEquals(
+                plans.stream().filter(FilterNode.class::isInstance).collect(toList()),
+                classified.get("filter"));
+        assertTrue(classified.get("t0 scan").stream().allMatch(scan -> ((ScanNode) scan).getTableName().equals("t0")));
+    }
+
+    @Test
+    void flat_trees() {
+        FlatTreeSchema<PlanNode> schema = FlatTreeSchema.builder(PlanNode::getSources)
+                .kinds(JoinNode.class, ProjectNode.class, FilterNode.class, ScanNode.class, Exchange.class)
+                .child(SingleSourcePlanNode.class, source())
+                .child(JoinNode.class, probe())
+                .child(JoinNode.class, build())
+                .attribute(ScanNode.class, tableName())
+                .build();
+        FlatTree tree = schema.encode(new JoinNode(
+                new ProjectNode(new FilterNode(new ScanNode("orders"), null)),
+                new Exchange(new ScanNode("lineitem"), new ScanNode("orders"))));
+
+        //nodes are in pre-order
+        assertEquals(7, tree.getNodeCount());
+        assertEquals(ScanNode.class, tree.getNodeClass(3));
+        assertEquals(asList(1, 4), asList(tree.getChild(0, 0), tree.getChild(0, 1)));
+        assertEquals(2, tree.getChildCount(4));
+
+        assertFlatMatches(schema, tree, scan().with(tableName().equalTo("orders")), 3, 6);
+        assertFlatMatches(schema, tree, scan().with(tableName().equalTo("part")));
+        assertFlatMatches(schema, tree, plan(), 0, 1, 2, 3, 4, 5, 6);
+        assertFlatMatches(schema, tree, project().with(source().matching(filter().with(source().matching(scan())))), 1);
+        assertFlatMatches(schema, tree, join().with(build().ofType(Exchange.class)).with(probe().matching(project().capturedAs(newCapture()))), 0);
+        assertFlatMatches(schema, tree, typeOf(SingleSourcePlanNode.class).with(source().matching(typeOf(ScanNode.class))), 2);
+
+        //type tests of attribute values, including values added to the dictionary after the test is compiled
+        FlatMatcher stringTableName = schema.compile(scan().with(tableName().matching(typeOf(String.class))));
+        assertEquals(asList(3, 5, 6), Arrays.stream(stringTableName.findAll(tree)).boxed().collect(toList()));
+        FlatTree newTables = schema.encode(new JoinNode(new ScanNode("nation"), new ScanNode(null)));
+        assertEquals(asList(1), Arrays.stream(stringTableName.findAll(newTables)).boxed().collect(toList()));
+        assertFlatMatches(schema, newTables, scan().with(tableName().matching(nullable(String.class))), 1, 2);
+
+        //null children
+        FlatTree projectOfNull = schema.encode(new ProjectNode(null));
+        assertFlatMatches(schema, projectOfNull, project().with(source().matching(nullable(PlanNode.class))), 0);
+        assertFlatMatches(schema, projectOfNull, project().with(source().matching(plan())));
+
+        assertThrows(IllegalArgumentException.class, () -> schema.compile(scan().matching(node -> true)));
+        assertThrows(IllegalArgumentException.class, () -> schema.compile(plan().with(anySource().matching(scan()))));
+        assertThrows(IllegalArgumentException.class, () -> schema.encode(new ProjectNode(new ProjectNode(new PlanNode() {
+            @Override
+            public List<PlanNode> getSources() {
+                return emptyList();
+            }
+        }))));
+    }
+
+    private void assertFlatMatches(FlatTreeSchema<PlanNode> schema, FlatTree tree, Matcher<?> matcher, Integer... expectedNodes) {
+        FlatMatcher flatMatcher = schema.compile(matcher);
+        assertEquals(asList(expectedNodes), Arrays.stream(flatMatcher.findAll(tree)).boxed().collect(toList()));
+        for (int node : expectedNodes) {
+            assertTrue(flatMatcher.matches(tree, node));
+        }
+    }
+
+    @Test
+    void subtree_dags() {
+        ScanNode sharedScan = new ScanNode("orders");
+        PlanNode plan = new JoinNode(
+                new Exchange(new FilterNode(new ScanNode("orders"), null), new FilterNode(new ScanNode("orders"), null), new ProjectNode(sharedScan)),
+                new JoinNode(sharedScan, new ScanNode("lineitem")));
+        SubtreeDag<PlanNode> dag = SubtreeDag.of(
+                plan,
+                PlanNode::getSources,
+                node -> node instanceof ScanNode ? ((ScanNode) node).getTableName() : null);
+
+        assertEquals(11, dag.getNodeCount());
+        //the orders scans, the filters over them, the exchange, the project, the lineitem scan and the joins
+        assertEquals(7, dag.getUniqueSubtreeCount());
+        assertEquals(ScanNode.class, dag.getUniqueSubtrees().get(0).getClass());
+
+        List<PlanNode> evaluated = new ArrayList<>();
+        Matcher<String> scannedTables = scan()
+                .matching(scan -> evaluated.add(scan))
+                .matching((ScanNode scan, Captures captures) -> Option.of(scan.getTableName()));
+        assertEquals(asList("orders", "orders", "orders", "orders", "lineitem"), dag.findAll(scannedTables));
+        //the unique subtrees, and the matching ones' other occurrences, except the shared scan's second one
+        assertEquals(4, evaluated.size());
+        evaluated.clear();
+        dag.matchUniqueSubtrees(scannedTables);
+        assertEquals(2, evaluated.size());
+
+        Matcher<String> rewrites = matchFor(PlanNode.class, String.class)
+                .caseOf(filter().with(source().matching(scan()))).returns(() -> "filter over scan")
+                .caseOf(join()).returns(() -> "join")
+                .returnFirst();
+        assertEquals(asList("join", "filter over scan", "filter over scan", "join"), dag.findAll(rewrites));
+
+        //the scans found are the tree's own, not the unique subtrees'
+        List<ScanNode> scans = dag.findAll(scan());
+        List<PlanNode> expectedScans = asList(
+                plan.getSources().get(0).getSources().get(0).getSources().get(0),
+                plan.getSources().get(0).getSources().get(1).getSources().get(0),
+                sharedScan,
+                sharedScan,
+                plan.getSources().get(1).getSources().get(1));
+        assertEquals(expectedScans.size(), scans.size());
+        for (int i = 0; i < scans.size(); i++) {
+            assertSame(expectedScans.get(i), scans.get(i));
+        }
+    }
+
+    @Test
+    void tiered_matchers() {
+        List<Runnable> promotions = new ArrayList<>();
+        Matcher<FilterNode> interpreted = filter().with(source().matching(scan().with(tableName().equalTo("orders"))));
+        Executor promotionExecutor = promotions::add;
+        Matcher<FilterNode> tiered = interpreted.tiered(3, promotionExecutor);
+        FilterNode ordersFilter = new FilterNode(new ScanNode("orders"), null);
+        FilterNode lineitemFilter = new FilterNode(new ScanNode("lineitem"), null);
+        ProjectNode project = new ProjectNode(new ScanNode("orders"));
+
+        assertNotEquals(interpreted, tiered);
+        for (int i = 0; i < 3; i++) {
+            assertMatch(tiered, ordersFilter);
+        }
+        //the promotion is submitted once, and matching goes on unpromoted until it's done
+        assertEquals(1, promotions.size());
+        assertNoMatch(tiered, lineitemFilter);
+        assertFalse(tiered.isPromoted());
+        assertEquals(1, promotions.size());
+        promotions.get(0).run();
+        assertTrue(tiered.isPromoted());
+        assertMatch(tiered, ordersFilter);
+        assertNoMatch(tiered, lineitemFilter);
+        assertNoMatch(tiered, project);
+        assertNoMatch(tiered, null);
+
+        //the guard covers the steps testing the matched value, the later ones are evaluated as before
+        Capture<String> table = newCapture();
+        Matcher<String> scannedTable = scan()
+                .with(tableName().matching(StringMatchers.startsWith("line").capturedAs(table)))
+                .matching((ScanNode scan, Captures captures) -> Option.of(captures.get(table).toUpperCase()))
+                .tiered(0, Runnable::run);
+        assertMatch(scannedTable, new ScanNode("lineitem"), "LINEITEM");
+        assertTrue(scannedTable.isPromoted());
+        assertEquals("lineitem", assertMatch(scannedTable, new ScanNode("lineitem"), "LINEITEM").capture(table));
+        assertNoMatch(scannedTable, new ScanNode("orders"));
+
+        List<PlanNode> evaluated = new ArrayList<>();
+        Matcher<String> cases = matchFor(PlanNode.class, String.class)
+                .withTiering(1, Runnable::run)
+                .caseOf(join().matching(join -> evaluated.add(join))).returns(() -> "join")
+                .caseOf(filter().with(Property.field(FilterNode.class, "predicate").matching(isNull()))).returns(() -> "filter")
+                .caseOf(plan()).returns(() -> "plan")
+                .returnFirst();
+        for (int i = 0; i < 2; i++) {
+            assertMatch(cases, ordersFilter, "filter");
+            assertMatch(cases, project, "plan");
+            assertMatch(cases, new JoinNode(project, project), "join");
+        }
+        //once promoted, the case is replaced by its guard, which evaluates the predicate once
+        assertEquals(2, evaluated.size());
+        //tiered cases are analyzed as the cases they tier
+        assertEquals(1, matchFor(PlanNode.class, String.class)
+                .withTiering(1, Runnable::run)
+                .caseOf(plan()).returns(() -> "plan")
+                .caseOf(join()).returns(() -> "join")
+                .compile()
+                .getUnreachableCases().size());
+
+        //budgeted evaluations skip the guard, which would reject the lineitem filter without taking any step
+        assertTrue(interpreted.match(lineitemFilter, MatchBudget.steps(2)).isExhausted());
+        assertTrue(tiered.match(lineitemFilter, MatchBudget.steps(2)).isExhausted());
+        assertNoMatch(tiered.withBudget(MatchBudget.steps(100)), lineitemFilter);
+        assertMatch(tiered.withBudget(MatchBudget.steps(100)), ordersFilter);
+
+        //tiered matchers are interned apart from the matchers they tier, with promotions of their own
+        MatcherPool pool = MatcherPool.create();
+        Matcher<FilterNode> internedInterpreted = pool.intern(interpreted);
+        Matcher<FilterNode> internedTiered = pool.intern(filter().with(source().matching(scan().with(tableName().equalTo("orders")))).tiered(3, promotionExecutor));
+        assertTrue(internedTiered != internedInterpreted);
+        assertTrue(internedTiered.getPrevious() == internedInterpreted);
+        assertTrue(pool.intern(interpreted) == internedInterpreted);
+        assertTrue(pool.intern(tiered) == internedTiered);
+        assertTrue(pool.intern(interpreted.tiered(4, promotionExecutor)) != internedTiered);
+        for (int i = 0; i < 3; i++) {
+            assertMatch(internedTiered, ordersFilter);
+            assertMatch(internedInterpreted, ordersFilter);
+        }
+        assertEquals(2, promotions.size());
+        promotions.get(1).run();
+        assertTrue(internedTiered.isPromoted());
+        assertFalse(internedInterpreted.isPromoted());
+        assertMatch(internedTiered, ordersFilter);
+        assertNoMatch(internedTiered, lineitemFilter);
+    }
+
+    @Test
+    void allocation_budgets() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        ScanNode orders = new ScanNode("orders");
+        ProjectNode projectOverFilter = new ProjectNode(new FilterNode(orders, null));
+        JoinNode join = new JoinNode(orders, new ScanNode("lineitem"));
+
+        //Budgets are in bytes per match, on a 64-bit JVM with compressed oops (a Match, or a Captures element, takes 24 bytes).
+        //Steps not adding captures pass the match they're given on, the root type test's one.
+        //The budgets don't rely on escape analysis, which removes some allocations depending on what got inlined.
+        assertAllocationBudget(threads, 24, scan(), orders);
+        assertAllocationBudget(threads, 24, scan().matching(node -> node.getTableName().startsWith("o")), orders);
+        assertAllocationBudget(threads, 24, scan().matching(node -> node.getTableName().startsWith("l")), orders);
+        assertAllocationBudget(threads, 144, project().with(source().matching(filter().with(source().matching(scan().with(tableName().equalTo("orders")))))), projectOverFilter);
+        assertAllocationBudget(threads, 80, project().with(source().matching(filter().with(source().matching(join())))), projectOverFilter);
+        assertAllocationBudget(threads, 368, join().capturedAs(newCapture())
+                .with(probe().matching(scan().capturedAs(newCapture())))
+                .with(build().matching(scan().capturedAs(newCapture()))), join);
+        //the lists are matched as they are read, without wrapping them
+        assertAllocationBudget(threads, 24, join().with(anySource().matching(join())), join);
+        assertAllocationBudget(threads, 48, join().with(anySource().matching(scan())), join);
+        assertAllocationBudget(threads, 24, join().with(allSources().matching(join())), join);
+        assertAllocationBudget(threads, 96, join().with(allSources().matching(scan())), join);
+
+        //the pattern match's matcher allocates its own root match, before dispatching to the cases
+        int dispatch = 24;
+        //each failing scan case allocates its root match, the table name's Option and the root match of equalTo()
+        int failingScanCase = 24 + 16 + 24;
+        //the matching case allocates its root match and the match of its result
+        int planCase = 24 + 24;
+        //returningAll() collects the results in an ArrayList (with its default capacity) and allocates a match of them
+        int allResults = 24 + 56 + 24;
+        PatternMatch<PlanNode, String> patternMatch = matchFor(PlanNode.class, String.class);
+        for (int i = 0; i < 99; i++) {
+            String table = "table" + i;
+            patternMatch.caseOf(scan().with(tableName().equalTo(table))).returns(() -> table);
+        }
+        patternMatch.caseOf(plan()).returns(() -> "plan");
+        assertAllocationBudget(threads, dispatch + 99 * failingScanCase + planCase, patternMatch.returnFirst(), orders);
+        assertAllocationBudget(threads, dispatch + 99 * failingScanCase + planCase + allResults, patternMatch.returningAll(), orders);
+
+        //a failing dispatch allocates nothing but the candidates' root matches: the candidate lists are cached per class
+        PatternMatch<PlanNode, String> noMatch = matchFor(PlanNode.class, String.class);
+        for (int i = 0; i < 100; i++) {
+            String table = "table" + i;
+            noMatch.caseOf(scan().matching(scan -> scan.getTableName().equals(table))).returns(() -> table);
+        }
+        assertAllocationBudget(threads, dispatch + 100 * 24, noMatch.returnFirst(), orders);
+        assertAllocationBudget(threads, dispatch + 100 * 24, noMatch.returningAll(), orders);
+    }
+
+    //Measured once the matcher is warmed up, so that the budget doesn't cover one-off allocations, e.g. of the dispatch table
+    private static void assertAllocationBudget(com.sun.management.ThreadMXBean threads, long budget, Matcher<?> matcher, Object object) {
+        int iterations = 20_000;
+        int matches = 0;
+        for (int i = 0; i < iterations; i++) {
+            matches += matcher.match(object).isPresent() ? 1 : 0;
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            matches += matcher.match(object).isPresent() ? 1 : 0;
+        }
+        long allocated = (threads.getThreadAllocatedBytes(threadId) - start) / iterations;
+        assertTrue(matches == 0 || matches == 2 * iterations);
+        assertTrue(allocated <= budget, () -> "Allocated " + allocated + " bytes per match, more than the budget of " + budget + " bytes");
+    }
+
+    @Test
+    void exhaustive_pattern_matching() {
+        //final classes are closed hierarchies of their own, sealed ones are recognized on Java 17+
+        Matcher<String> strings = matchFor(String.class, String.class).exhaustive()
+                .caseOf(s -> s.isEmpty()).returns(() -> "empty")
+                .caseOf(s -> true).returns(Function.identity())
+                .returnFirst();
+        assertMatch(strings, "", "empty");
+
+        Throwable uncovered = assertThrows(IllegalStateException.class, () -> matchFor(Integer.class, String.class)
+                .exhaustive()
+                .returnFirst());
+        assertEquals("No case applies to java.lang.Integer", uncovered.getMessage());
+
+        assertThrows(IllegalStateException.class, () -> matchFor(PlanNode.class, String.class)
+                .exhaustive()
+                .caseOf(plan()).returns(() -> "plan")
+                .returningAll());
+    }
+
+    @Test
+    void pattern_match_metrics() {
+        MatchMetrics metrics = MatchMetrics.sampledEvery(1);
+        Matcher<String> ruleSet = matchFor(PlanNode.class, String.class)
+                .withMetrics(metrics)
+                .caseOf(scan().with(tableName().equalTo("orders"))).returns(() -> "orders")
+                .caseOf(join()).returns(() -> "join")
+                .caseOf(plan()).returns(() -> "plan")
+                .returnFirst();
+
+        assertMatch(ruleSet, new ScanNode("orders"), "orders");
+        assertMatch(ruleSet, new ScanNode("lineitem"), "plan");
+        assertMatch(ruleSet, new JoinNode(null, null), "join");
+        assertMatch(ruleSet, new ProjectNode(null), "plan");
+
+        MatchMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getCases().size());
+        MatchMetrics.CaseSnapshot scanCase = snapshot.getCases().get(0);
+        assertEquals(2, scanCase.getAttempts());
+        assertEquals(1, scanCase.getSuccesses());
+        assertEquals(1, scanCase.getFailures());
+        assertEquals(2, scanCase.getLatencySamples());
+        assertTrue(scanCase.getLatencyPercentileNanos(99) > 0);
+        assertEquals(1, snapshot.getCases().get(1).getAttempts());
+        assertEquals(2, snapshot.getCases().get(2).getAttempts());
+
+        assertEquals(2, snapshot.getScopeTypes().get(ScanNode.class).getDispatches());
+        assertEquals(4, snapshot.getScopeTypes().get(ScanNode.class).getCandidates());
+        assertEquals(1, snapshot.getScopeTypes().get(ProjectNode.class).getCandidates());
+
+        //the cases are counted by index, so the metrics of a pattern match can't count another's
+        assertThrows(IllegalArgumentException.class, () -> matchFor(PlanNode.class, String.class).withMetrics(metrics));
+    }
+
+    @Test
+    void step_profiling() {
+        MatchProfiler profiler = MatchProfiler.sampledEvery(1);
+        Matcher<String> ruleSet = matchFor(PlanNode.class, String.class)
+                .caseOf(scan()).returns(() -> "scan")
+                .caseOf(project().with(source().matching(filter().with(source().matching(scan().matching(s -> s.getTableName().isEmpty())))))).returns(() -> "project")
+                .caseOf(plan()).returns(() -> "plan")
+                .returnFirst()
+                .withProfiler(profiler);
+
+        assertMatch(ruleSet, new ProjectNode(new FilterNode(new ScanNode("orders"), null)), "plan");
+
+        List<String> steps = Stream.of(profiler.toCollapsedStacks().split("\n"))
+                .map(line -> line.substring(0, line.lastIndexOf(' ')))
+                .collect(toList());
+        //steps of a single matcher are siblings, steps of nested matchers are nested
+        String projectCase = "[1] returnFirst;case[1];";
+        assertEquals(asList(
+                "[1] returnFirst",
+                "[1] returnFirst;case[1]",
+                projectCase + "[1] with(source)",
+                projectCase + "[1] with(source);[1] with(source)",
+                projectCase + "[1] with(source);[1] with(source);[1] matching(predicate)",
+                projectCase + "[1] with(source);[1] with(source);typeOf(ScanNode)",
+                projectCase + "[1] with(source);typeOf(FilterNode)",
+                projectCase + "typeOf(ProjectNode)",
+                "[1] returnFirst;case[2]",
+                "[1] returnFirst;case[2];[1] returns",
+                "[1] returnFirst;case[2];typeOf(PlanNode)",
+                "nullable(Object)"
+        ), steps);
+        assertEquals(steps, Stream.of(profiler.toCollapsedAllocationStacks().split("\n"))
+                .map(line -> line.substring(0, line.lastIndexOf(' ')))
+                .collect(toList()));
+
+        profiler.reset();
+        assertEquals("", profiler.toCollapsedStacks());
+    }
+
+    @Test
+    void async_extractors_with_batched_lookups() {
+        //an in-memory stand-in for a statistics service
+        Map<String, Long> rowCounts = ImmutableMap.of("orders", 1_500_000L, "lineitem", 6_000_000L, "nation", 25L);
+        List<List<String>> requests = new ArrayList<>();
+        List<Runnable> dispatches = new ArrayList<>();
+        BatchLoader<String, Long> loader = BatchLoader.of(
+                tableNames -> {
+                    requests.add(tableNames);
+                    return CompletableFuture.completedFuture(Maps.filterKeys(rowCounts, tableNames::contains));
+                },
+                dispatches::add,
+                100);
+
+        Matcher<ScanNode> bigScan = scan().with(tableName().matching(
+                typeOf(String.class).matchingAsync(loader.extractor(Function.identity())).matching(rows -> rows > 1_000_000)));
+        PatternMatch<PlanNode, String> patternMatch = matchFor(PlanNode.class, String.class)
+                .caseOf(bigScan).returns(() -> "big scan")
+                .caseOf(join().with(probe().matching(bigScan))).returns(() -> "join over big scan")
+                .caseOf(plan()).returns(() -> "plan");
+        Matcher<String> ruleSet = patternMatch.returnFirst();
+
+        List<PlanNode> nodes = asList(
+                new ScanNode("orders"),
+                new ScanNode("nation"),
+                new ScanNode("unknown"),
+                new JoinNode(new ScanNode("lineitem"), new ScanNode("nation")),
+                new FilterNode(new ScanNode("orders"), null));
+        List<CompletableFuture<Match<String>>> matches = nodes.stream().map(ruleSet::matchAsync).collect(toList());
+        assertFalse(matches.get(0).isDone());
+        assertTrue(matches.get(4).isDone());
+
+        //all the lookups of in-flight evaluations are loaded in a single batch
+        assertEquals(1, dispatches.size());
+        dispatches.remove(0).run();
+        assertEquals(asList(asList("orders", "nation", "unknown", "lineitem")), requests);
+        assertEquals(
+                asList("big scan", "plan", "plan", "join over big scan", "plan"),
+                matches.stream().map(match -> match.join().value()).collect(toList()));
+
+        CompletableFuture<Match<List<String>>> allMatches = patternMatch.returningAll().matchAsync(new ScanNode("orders"));
+        dispatches.remove(0).run();
+        assertEquals(asList("big scan", "plan"), allMatches.join().value());
+        assertEquals(5, loader.getLoadCount());
+        assertEquals(2, loader.getBatchCount());
+
+        //synchronous evaluation takes lookups that complete right away, and fails on the others rather than waiting
+        BatchLoader<String, Long> directLoader = BatchLoader.of(tableNames -> CompletableFuture.completedFuture(rowCounts), Runnable::run, 100);
+        Matcher<Long> rows = typeOf(String.class).matchingAsync(directLoader.extractor(Function.identity()));
+        assertMatch(rows, "nation", 25L);
+        assertNoMatch(rows, "unknown");
+        Matcher<Long> queuedRows = typeOf(String.class).matchingAsync(loader.extractor(Function.identity()));
+        assertThrows(IllegalStateException.class, () -> queuedRows.match("nation"));
+        dispatches.remove(0).run();
+
+        //budgets bound asynchronous evaluations too
+        Matcher<PlanNode> budgetedRows = plan().with(anySource().matching(scan().with(tableName().matching(rows))));
+        Exchange wide = new Exchange(new ScanNode("a"), new ScanNode("b"), new ScanNode("c"), new ScanNode("nation"));
+        assertTrue(budgetedRows.withBudget(MatchBudget.steps(100)).matchAsync(wide).join().isPresent());
+        assertTrue(budgetedRows.withBudget(MatchBudget.steps(4)).matchAsync(wide).join().isExhausted());
+
+        BatchLoader<String, Long> failingLoader = BatchLoader.of(
+                tableNames -> {
+                    throw new IllegalStateException("service unavailable");
+                },
+                Runnable::run,
+                100);
+        CompletableFuture<Match<Long>> failed = typeOf(String.class).matchingAsync(failingLoader.extractor(Function.identity())).matchAsync("orders");
+        assertTrue(failed.isCompletedExceptionally());
+    }
+
+    @Test
+    void scope_type_supertypes() {
+        assertEquals(
+                asList(FilterNode.class, PlanNode.class, SingleSourcePlanNode.class, Object.class),
+                ScopeTypes.supertypes(FilterNode.class).stream().sorted(comparing(Class::getName)).collect(toList()));
+        assertEquals(asList(Exchange.class, Object.class, PlanNode.class), ScopeTypes.supertypes(Exchange.class));
+        assertEquals(Integer.class, ScopeTypes.supertypes(Integer.class).get(0));
+        assertTrue(ScopeTypes.supertypes(Integer.class).containsAll(asList(Number.class, Comparable.class, Object.class, Serializable.class)));
+        assertTrue(ScopeTypes.supertypes(String[].class).containsAll(
+                asList(String[].class, CharSequence[].class, Object[].class, Object.class, Cloneable.class)));
+        assertEquals(asList(int[].class, Object.class, Cloneable.class, Serializable.class), ScopeTypes.supertypes(int[].class));
+
+        Matcher<String> arrays = matchFor(String.class)
+                .caseOf(typeOf(CharSequence[].class)).returns(() -> "char sequences")
+                .caseOf(typeOf(Object[].class)).returns(() -> "objects")
+                .returnFirst();
+        assertMatch(arrays, new String[0], "char sequences");
+        assertMatch(arrays, new Integer[0], "objects");
+    }
+
+    @Test
+    void interface_type_tests() {
+        TypeTest comparable = TypeTest.of(Comparable.class);
+        assertSame(comparable, TypeTest.of(Comparable.class));
+        assertFalse(comparable.test(null));
+        assertTrue(comparable.test(1));
+        assertTrue(comparable.test("a"));
+        assertFalse(comparable.test(new Object()));
+        //a class the cached test hasn't seen yet
+        class Version implements Comparable<Version> {
+            @Override
+            public int compareTo(Version other) {
+                return 0;
+            }
+        }
+        assertTrue(comparable.test(new Version()));
+        assertMatch(typeOf(Comparable.class), new Version());
+        assertNoMatch(typeOf(Comparable.class), null);
+        assertMatch(nullable(Comparable.class), null);
+
+        //arrays implement Cloneable and Serializable, and no other interface
+        for (Object array : asList(new int[0], new String[0], new Version[0][0])) {
+            assertTrue(TypeTest.of(Cloneable.class).test(array));
+            assertTrue(TypeTest.of(Serializable.class).test(array));
+            assertFalse(comparable.test(array));
+            assertFalse(TypeTest.of(CharSequence.class).test(array));
+        }
+        assertFalse(TypeTest.of(Cloneable.class).test(null));
+        assertFalse(TypeTest.of(Serializable.class).test(new Object()));
+        assertMatch(typeOf(Cloneable.class), new int[0]);
+    }
+
     private <T> Matcher<T> registerMatch(Class<T> scopeClass, List<Class<?>> matchAttemtpts) {
         return nullable(scopeClass).matching((x, captures) -> {
             matchAttemtpts.add(scopeClass);
@@ -0,0 +1,84 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.CompiledPatternMatch;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.plan;
+import static example.ast.Matchers.probe;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.source;
+import static example.ast.Matchers.tableName;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Measures the throughput of a single compiled rule set shared by one and by as many threads as there are CPUs.
+ * With nothing mutable shared, the throughput should scale linearly with the number of CPUs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledPatternMatchBenchmark {
+
+    private final PlanNode[] nodes = {
+            new ScanNode("orders"),
+            new FilterNode(new ScanNode("lineitem"), null),
+            new ProjectNode(new FilterNode(new ScanNode("orders"), null)),
+            new JoinNode(new ScanNode("orders"), new ScanNode("lineitem")),
+    };
+
+    private Matcher<String> ruleSet;
+
+    @Setup
+    public void setUp() {
+        CompiledPatternMatch<PlanNode, String> compiled = matchFor(PlanNode.class, String.class)
+                .caseOf(scan().with(tableName().equalTo("part"))).returns(() -> "part scan")
+                .caseOf(filter().with(source().matching(scan().with(tableName().equalTo("orders"))))).returns(() -> "orders filter")
+                .caseOf(project().with(source().matching(filter()))).returns(() -> "project over filter")
+                .caseOf(join().with(probe().matching(scan()))).returns(() -> "join")
+                .caseOf(plan()).returns(() -> "plan")
+                .compile();
+        ruleSet = compiled.returnFirst();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Match<String> singleThread() {
+        return match();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Match<String> allCpus() {
+        return match();
+    }
+
+    private Match<String> match() {
+        return ruleSet.match(nodes[ThreadLocalRandom.current().nextInt(nodes.length)]);
+    }
+}
@@ -0,0 +1,52 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+
+import java.lang.management.ManagementFactory;
+
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.plan;
+import static example.ast.Matchers.probe;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.source;
+import static example.ast.Matchers.tableName;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Reports how long it takes a fresh process to build a rule set and match the first plan,
+ * both in-process and since the process was started.
+ * <p>
+ * Run by the {@code native} profile both on the JVM and as a native image, to compare the two.
+ */
+public class FirstMatchLatency {
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        Matcher<String> ruleSet = matchFor(PlanNode.class, String.class)
+                .caseOf(scan().with(tableName().equalTo("part"))).returns(() -> "part scan")
+                .caseOf(filter().with(source().matching(scan().with(tableName().equalTo("orders"))))).returns(() -> "orders filter")
+                .caseOf(join().with(probe().matching(scan()))).returns(() -> "join")
+                .caseOf(project().with(source().matching(filter().with(source().matching(join()))))).returns(() -> "project over filter over join")
+                .caseOf(plan()).returns(() -> "plan")
+                .returnFirst();
+        Match<String> match = ruleSet.match(new ProjectNode(new FilterNode(new JoinNode(new ScanNode("orders"), new ScanNode("lineitem")), null)));
+        long firstMatchMicros = (System.nanoTime() - start) / 1000;
+        long sinceStartMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        if (!match.isPresent() || !match.value().equals("project over filter over join")) {
+            throw new AssertionError("Unexpected match: " + match);
+        }
+        System.out.printf("%s: first match %d us, %d ms since process start%n",
+                System.getProperty("org.graalvm.nativeimage.imagecode") == null ? "JVM" : "native image",
+                firstMatchMicros,
+                sinceStartMillis);
+    }
+}
@@ -0,0 +1,108 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.Exchange;
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import example.ast.SingleSourcePlanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.FlatMatcher;
+import rocks.matchmaker.FlatTree;
+import rocks.matchmaker.FlatTreeSchema;
+import rocks.matchmaker.Matcher;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static example.ast.Matchers.build;
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.probe;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.source;
+import static example.ast.Matchers.tableName;
+
+/**
+ * Compares finding all the nodes of a large plan matching a pattern by walking the plan's objects
+ * with finding them over its {@link FlatTree} encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlatTreeBenchmark {
+
+    private static final String[] TABLES = {"orders", "lineitem", "part", "supplier"};
+
+    private final Matcher<?> pattern = join()
+            .with(probe().matching(project().with(source().matching(filter()))))
+            .with(build().matching(scan().with(tableName().equalTo("orders"))));
+
+    private PlanNode plan;
+    private FlatTree flatPlan;
+    private FlatMatcher flatPattern;
+
+    @Setup
+    public void setUp() {
+        plan = generate(new Random(42), 14);
+        FlatTreeSchema<PlanNode> schema = FlatTreeSchema.builder(PlanNode::getSources)
+                .kinds(JoinNode.class, ProjectNode.class, FilterNode.class, ScanNode.class, Exchange.class)
+                .child(SingleSourcePlanNode.class, source())
+                .child(JoinNode.class, probe())
+                .child(JoinNode.class, build())
+                .attribute(ScanNode.class, tableName())
+                .build();
+        flatPlan = schema.encode(plan);
+        flatPattern = schema.compile(pattern);
+    }
+
+    private static PlanNode generate(Random random, int depth) {
+        if (depth == 0) {
+            return new ScanNode(TABLES[random.nextInt(TABLES.length)]);
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return new ProjectNode(generate(random, depth - 1));
+            case 1:
+                return new FilterNode(generate(random, depth - 1), null);
+            default:
+                return new JoinNode(generate(random, depth - 1), generate(random, depth - 1));
+        }
+    }
+
+    @Benchmark
+    public int objectTree() {
+        int matches = 0;
+        Deque<PlanNode> stack = new ArrayDeque<>();
+        stack.push(plan);
+        while (!stack.isEmpty()) {
+            PlanNode node = stack.pop();
+            if (pattern.match(node).isPresent()) {
+                matches++;
+            }
+            node.getSources().forEach(stack::push);
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int flatTree() {
+        return flatPattern.findAll(flatPlan).length;
+    }
+}
@@ -0,0 +1,120 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.PlanNode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.CompiledPatternMatch;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs generated rule sets ({@link RuleCorpus}) over generated plans ({@link PlanGenerator}):
+ * searching whole plans for the nodes some rule matches, and matching single nodes with
+ * {@link CompiledPatternMatch#returnFirst()} and {@link CompiledPatternMatch#returningAll()}.
+ * <p>
+ * Each benchmark is measured both for throughput and for its latency distribution (p50, p99...).
+ * Run by the {@code macro-benchmark} profile with JMH's allocation profiler, and reported as JSON
+ * in {@code target/macro-benchmark.json}, so that the reports of two commits can be diffed.
+ * The number of unreachable generated rules is reported as an auxiliary counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacroBenchmark {
+
+    @Param({"42"})
+    private long seed;
+
+    @Param({"10", "100", "1000"})
+    private int rules;
+
+    @Param({"0.1", "0.5"})
+    private double overlap;
+
+    @Param({"8"})
+    private int joinDepth;
+
+    @Param({"16"})
+    private int exchangeWidth;
+
+    private final List<PlanNode> plans = new ArrayList<>();
+    private PlanNode[] nodes;
+    private int unreachableRules;
+    private Matcher<Integer> first;
+    private Matcher<List<Integer>> all;
+    private int nextPlan;
+    private int nextNode;
+
+    @Setup
+    public void setUp() {
+        PlanGenerator generator = new PlanGenerator(seed, joinDepth, exchangeWidth, 3);
+        List<PlanNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            PlanNode plan = generator.next();
+            plans.add(plan);
+            nodes.addAll(PlanGenerator.nodes(plan));
+        }
+        this.nodes = nodes.toArray(new PlanNode[0]);
+        CompiledPatternMatch<PlanNode, Integer> compiled = RuleCorpus.generate(seed, rules, overlap, 4).compile();
+        unreachableRules = compiled.getUnreachableCases().size();
+        first = compiled.returnFirst();
+        all = compiled.returningAll();
+    }
+
+    //set by each benchmark, as JMH resets the counters before every iteration
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RuleCounts {
+
+        public long unreachableRules;
+    }
+
+    @Benchmark
+    public int treeSearch(RuleCounts ruleCounts) {
+        ruleCounts.unreachableRules = unreachableRules;
+        PlanNode plan = plans.get(nextPlan);
+        nextPlan = (nextPlan + 1) % plans.size();
+        int matches = 0;
+        for (PlanNode node : PlanGenerator.nodes(plan)) {
+            if (first.match(node).isPresent()) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public Match<Integer> returnFirst(RuleCounts ruleCounts) {
+        ruleCounts.unreachableRules = unreachableRules;
+        return first.match(nextNode());
+    }
+
+    @Benchmark
+    public Match<List<Integer>> returningAll(RuleCounts ruleCounts) {
+        ruleCounts.unreachableRules = unreachableRules;
+        return all.match(nextNode());
+    }
+
+    private PlanNode nextNode() {
+        PlanNode node = nodes[nextNode];
+        nextNode = (nextNode + 1) % nodes.length;
+        return node;
+    }
+}
@@ -0,0 +1,91 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.PlanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.CompiledPatternMatch;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Matches the nodes of generated plans against a generated rule set ({@link RuleCorpus}), as a sequential and as a parallel stream:
+ * mapping the stream to matches and filtering out the empty ones, with {@link Matcher#filter(java.util.stream.Stream)},
+ * with {@link Matcher#collector()} and with {@link CompiledPatternMatch#classify(java.util.Spliterator)}.
+ * <p>
+ * The parallel benchmarks scale with the common fork-join pool, so compare them with {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism=N}
+ * for a few values of N up to the number of CPUs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelStreamBenchmark {
+
+    @Param({"42"})
+    private long seed;
+
+    @Param({"100"})
+    private int rules;
+
+    private final List<PlanNode> nodes = new ArrayList<>();
+    private CompiledPatternMatch<PlanNode, Integer> compiled;
+    private Matcher<Integer> first;
+
+    @Setup
+    public void setUp() {
+        PlanGenerator generator = new PlanGenerator(seed, 8, 16, 3);
+        for (int i = 0; i < 64; i++) {
+            nodes.addAll(PlanGenerator.nodes(generator.next()));
+        }
+        compiled = RuleCorpus.generate(seed, rules, 0.5, 4).compile();
+        first = compiled.returnFirst();
+    }
+
+    @Benchmark
+    public List<Integer> mapToMatchesSequential() {
+        return nodes.stream().map(first::match).filter(Match::isPresent).map(Match::value).collect(toList());
+    }
+
+    @Benchmark
+    public List<Integer> filterSequential() {
+        return first.filter(nodes.stream()).collect(toList());
+    }
+
+    @Benchmark
+    public List<Integer> mapToMatchesParallel() {
+        return nodes.parallelStream().map(first::match).filter(Match::isPresent).map(Match::value).collect(toList());
+    }
+
+    @Benchmark
+    public List<Integer> filterParallel() {
+        return first.filter(nodes.parallelStream()).collect(toList());
+    }
+
+    @Benchmark
+    public List<Integer> collectorParallel() {
+        return nodes.parallelStream().collect(first.collector());
+    }
+
+    @Benchmark
+    public Map<Integer, List<PlanNode>> classifyParallel() {
+        return compiled.classify(nodes.spliterator());
+    }
+}
@@ -0,0 +1,98 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.MatchMetrics;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.PatternMatch;
+
+import java.util.concurrent.TimeUnit;
+
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.plan;
+import static example.ast.Matchers.probe;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.source;
+import static example.ast.Matchers.tableName;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Compares rule set evaluation without metrics (which should cost nothing)
+ * and with metrics at the default and the densest sampling rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternMatchMetricsBenchmark {
+
+    private final PlanNode[] nodes = {
+            new ScanNode("orders"),
+            new FilterNode(new ScanNode("lineitem"), null),
+            new ProjectNode(new FilterNode(new ScanNode("orders"), null)),
+            new JoinNode(new ScanNode("orders"), new ScanNode("lineitem")),
+    };
+
+    private Matcher<String> withoutMetrics;
+    private Matcher<String> withMetrics;
+    private Matcher<String> withEveryCallSampled;
+
+    @Setup
+    public void setUp() {
+        withoutMetrics = ruleSet(matchFor(PlanNode.class, String.class));
+        withMetrics = ruleSet(matchFor(PlanNode.class, String.class).withMetrics(MatchMetrics.create()));
+        withEveryCallSampled = ruleSet(matchFor(PlanNode.class, String.class).withMetrics(MatchMetrics.sampledEvery(1)));
+    }
+
+    private static Matcher<String> ruleSet(PatternMatch<PlanNode, String> patternMatch) {
+        return patternMatch
+                .caseOf(scan().with(tableName().equalTo("part"))).returns(() -> "part scan")
+                .caseOf(filter().with(source().matching(scan().with(tableName().equalTo("orders"))))).returns(() -> "orders filter")
+                .caseOf(project().with(source().matching(filter()))).returns(() -> "project over filter")
+                .caseOf(join().with(probe().matching(scan()))).returns(() -> "join")
+                .caseOf(plan()).returns(() -> "plan")
+                .returnFirst();
+    }
+
+    @Benchmark
+    public Match<String>[] noMetrics() {
+        return matchAll(withoutMetrics);
+    }
+
+    @Benchmark
+    public Match<String>[] metrics() {
+        return matchAll(withMetrics);
+    }
+
+    @Benchmark
+    public Match<String>[] metricsSamplingEveryCall() {
+        return matchAll(withEveryCallSampled);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Match<String>[] matchAll(Matcher<String> matcher) {
+        Match<String>[] matches = new Match[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            matches[i] = matcher.match(nodes[i]);
+        }
+        return matches;
+    }
+}
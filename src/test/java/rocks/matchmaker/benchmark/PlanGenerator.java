@@ -0,0 +1,103 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.Exchange;
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Generates random plans shaped like the ones a query optimizer works on: deep, mostly left-deep join trees,
+ * exchanges with wide fan-outs and chains of filters and projects. The same seed always generates the same plans.
+ */
+public class PlanGenerator {
+
+    static final List<String> TABLES = asList("orders", "lineitem", "part", "partsupp", "supplier", "customer", "nation", "region");
+
+    private final Random random;
+    private final int joinDepth;
+    private final int exchangeWidth;
+    private final int maxChainLength;
+
+    /**
+     * @param joinDepth number of joins on the longest path from the root of a plan to a scan
+     * @param exchangeWidth number of sources of each exchange
+     * @param maxChainLength maximal number of filters and projects between joins, exchanges and scans
+     */
+    public PlanGenerator(long seed, int joinDepth, int exchangeWidth, int maxChainLength) {
+        this.random = new Random(seed);
+        this.joinDepth = joinDepth;
+        this.exchangeWidth = exchangeWidth;
+        this.maxChainLength = maxChainLength;
+    }
+
+    public PlanNode next() {
+        return chain(join(joinDepth));
+    }
+
+    private PlanNode join(int depth) {
+        if (depth == 0) {
+            return leaf();
+        }
+        PlanNode probe = chain(join(depth - 1));
+        //mostly left-deep, with a few shallow bushy subtrees
+        PlanNode build = chain(random.nextInt(4) == 0 ? join(Math.min(depth - 1, 2)) : leaf());
+        return new JoinNode(probe, build);
+    }
+
+    private PlanNode leaf() {
+        if (random.nextInt(3) > 0) {
+            return scan();
+        }
+        PlanNode[] sources = new PlanNode[exchangeWidth];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = chain(scan());
+        }
+        return new Exchange(sources);
+    }
+
+    private PlanNode chain(PlanNode source) {
+        int length = random.nextInt(maxChainLength + 1);
+        for (int i = 0; i < length; i++) {
+            source = random.nextBoolean() ? new FilterNode(source, null) : new ProjectNode(source);
+        }
+        return source;
+    }
+
+    private ScanNode scan() {
+        return new ScanNode(table(random));
+    }
+
+    static String table(Random random) {
+        return TABLES.get(random.nextInt(TABLES.size()));
+    }
+
+    /**
+     * @return all the nodes of the plan, in pre-order
+     */
+    public static List<PlanNode> nodes(PlanNode plan) {
+        List<PlanNode> nodes = new ArrayList<>();
+        Deque<PlanNode> stack = new ArrayDeque<>();
+        stack.push(plan);
+        while (!stack.isEmpty()) {
+            PlanNode node = stack.pop();
+            nodes.add(node);
+            List<PlanNode> sources = node.getSources();
+            for (int i = sources.size() - 1; i >= 0; i--) {
+                if (sources.get(i) != null) {
+                    stack.push(sources.get(i));
+                }
+            }
+        }
+        return nodes;
+    }
+}
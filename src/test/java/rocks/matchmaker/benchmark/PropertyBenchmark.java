@@ -0,0 +1,126 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import example.ast.SingleSourcePlanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.Property;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static rocks.matchmaker.Matcher.typeOf;
+
+/**
+ * Matches chains of filters and projects over scans, two sources deep, reading the sources and the scanned tables
+ * with lambda properties ({@link Property#property(java.util.function.Function)}), with getter properties
+ * ({@link Property#getter(Class, String)}) and with field properties ({@link Property#field(Class, String)}).
+ * <p>
+ * Before measuring, matchers with all three kinds of properties, and with the join's properties, are evaluated,
+ * so that the property reads in {@link Matcher#with(rocks.matchmaker.PropertyMatcher)} are megamorphic, as in an optimizer with many rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyBenchmark {
+
+    private final List<PlanNode> nodes = new ArrayList<>();
+    private Matcher<SingleSourcePlanNode> lambdaProperties;
+    private Matcher<SingleSourcePlanNode> getterProperties;
+    private Matcher<FilterNode> fieldProperties;
+    private Matcher<FilterNode> lambdaPropertiesOfFilters;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            PlanNode node = new ScanNode(PlanGenerator.table(random));
+            for (int depth = 0; depth < 2; depth++) {
+                node = random.nextBoolean() ? new FilterNode(node, null) : new ProjectNode(node);
+            }
+            nodes.add(node);
+        }
+
+        Property<SingleSourcePlanNode, PlanNode> sourceLambda = Property.property(SingleSourcePlanNode::getSource);
+        Property<ScanNode, String> tableNameLambda = Property.property(ScanNode::getTableName);
+        Property<SingleSourcePlanNode, PlanNode> sourceGetter = Property.getter(SingleSourcePlanNode.class, "getSource");
+        Property<ScanNode, String> tableNameGetter = Property.getter(ScanNode.class, "getTableName");
+        Property<FilterNode, PlanNode> filterSourceField = Property.field(FilterNode.class, "source");
+        Property<FilterNode, PlanNode> filterSourceLambda = Property.property(FilterNode::getSource);
+        Property<ScanNode, String> tableNameField = Property.field(ScanNode.class, "tableName");
+
+        lambdaProperties = typeOf(SingleSourcePlanNode.class).with(sourceLambda.matching(
+                typeOf(SingleSourcePlanNode.class).with(sourceLambda.matching(scan().with(tableNameLambda.equalTo("orders"))))));
+        getterProperties = typeOf(SingleSourcePlanNode.class).with(sourceGetter.matching(
+                typeOf(SingleSourcePlanNode.class).with(sourceGetter.matching(scan().with(tableNameGetter.equalTo("orders"))))));
+        fieldProperties = filter().with(filterSourceField.matching(
+                filter().with(filterSourceField.matching(scan().with(tableNameField.equalTo("orders"))))));
+        lambdaPropertiesOfFilters = filter().with(filterSourceLambda.matching(
+                filter().with(filterSourceLambda.matching(scan().with(tableNameLambda.equalTo("orders"))))));
+
+        Matcher<JoinNode> joins = join()
+                .with(Property.property(JoinNode::getProbe).matching(project()))
+                .with(Property.getter(JoinNode.class, "getBuild").matching(filter()))
+                .with(Property.field(JoinNode.class, "probe").matching(project()));
+        for (int i = 0; i < 10_000; i++) {
+            PlanNode node = nodes.get(i % nodes.size());
+            matches(lambdaProperties);
+            matches(getterProperties);
+            matches(fieldProperties);
+            matches(lambdaPropertiesOfFilters);
+            joins.match(new JoinNode(node, node));
+        }
+    }
+
+    @Benchmark
+    public int lambdaProperties() {
+        return matches(lambdaProperties);
+    }
+
+    @Benchmark
+    public int getterProperties() {
+        return matches(getterProperties);
+    }
+
+    @Benchmark
+    public int lambdaPropertiesOfFilters() {
+        return matches(lambdaPropertiesOfFilters);
+    }
+
+    @Benchmark
+    public int fieldPropertiesOfFilters() {
+        return matches(fieldProperties);
+    }
+
+    private int matches(Matcher<?> matcher) {
+        int matches = 0;
+        for (PlanNode node : nodes) {
+            if (matcher.match(node).isPresent()) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,98 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.Exchange;
+import example.ast.PlanNode;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.PatternMatch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static example.ast.Matchers.anySource;
+import static example.ast.Matchers.build;
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.probe;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.source;
+import static example.ast.Matchers.sourcesCount;
+import static example.ast.Matchers.tableName;
+import static rocks.matchmaker.Matcher.typeOf;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Generates random rule sets over {@link PlanGenerator} plans. The same seed always generates the same rules.
+ * <p>
+ * Rules are nested patterns of random depth, returning their index. The overlap is the probability of a rule
+ * refining (adding a condition to) a random earlier rule rather than being generated from scratch.
+ * Refinements go right before the rules they refine, so that the refined rule still matches what its refinement doesn't.
+ * Rules are distinct (see {@link Matcher#equals(Object)}), but some can still be unreachable: e.g. a {@code scan()} rule
+ * makes all the scan rules after it unreachable (see {@link rocks.matchmaker.CompiledPatternMatch#getUnreachableCases()}).
+ */
+public class RuleCorpus {
+
+    private RuleCorpus() {
+    }
+
+    public static PatternMatch<PlanNode, Integer> generate(long seed, int size, double overlap, int maxDepth) {
+        Random random = new Random(seed);
+        List<Matcher<? extends PlanNode>> rules = new ArrayList<>();
+        Set<Matcher<? extends PlanNode>> distinctRules = new HashSet<>();
+        while (rules.size() < size) {
+            if (!rules.isEmpty() && random.nextDouble() < overlap) {
+                int refined = random.nextInt(rules.size());
+                Matcher<? extends PlanNode> refinement = refine(random, rules.get(refined));
+                if (distinctRules.add(refinement)) {
+                    rules.add(refined, refinement);
+                }
+            } else {
+                Matcher<? extends PlanNode> rule = pattern(random, 1 + random.nextInt(maxDepth));
+                if (distinctRules.add(rule)) {
+                    rules.add(rule);
+                }
+            }
+        }
+        PatternMatch<PlanNode, Integer> patternMatch = matchFor(PlanNode.class, Integer.class);
+        for (int i = 0; i < rules.size(); i++) {
+            int result = i;
+            patternMatch.caseOf(rules.get(i)).returns(() -> result);
+        }
+        return patternMatch;
+    }
+
+    private static Matcher<? extends PlanNode> pattern(Random random, int depth) {
+        if (depth == 1) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    return scan();
+                case 1:
+                    return typeOf(Exchange.class);
+                default:
+                    return scan().with(tableName().equalTo(PlanGenerator.table(random)));
+            }
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return filter().with(source().matching(pattern(random, depth - 1)));
+            case 1:
+                return project().with(source().matching(pattern(random, depth - 1)));
+            case 2:
+                return join()
+                        .with(probe().matching(pattern(random, depth - 1)))
+                        .with(build().matching(pattern(random, 1)));
+            default:
+                return typeOf(Exchange.class).with(anySource().matching(pattern(random, depth - 1)));
+        }
+    }
+
+    private static <T extends PlanNode> Matcher<T> refine(Random random, Matcher<T> rule) {
+        if (random.nextBoolean()) {
+            return rule.with(sourcesCount().matching(count -> count <= 1));
+        }
+        return rule.with(anySource().matching(scan().with(tableName().equalTo(PlanGenerator.table(random)))));
+    }
+}
@@ -0,0 +1,123 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.FilterNode;
+import example.ast.JoinNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.CompiledPatternMatch;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.PatternMatch;
+import rocks.matchmaker.RuleSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.join;
+import static example.ast.Matchers.project;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.tableName;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Measures the latency of changing one rule of a large rule set, including the first match of each class afterwards:
+ * recompiling all the rules vs updating a {@link RuleSet} incrementally. Both replace the same rule,
+ * so the rule set keeps its size.
+ * The first rule of each scope type matches, so that the matching itself is cheap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleSetUpdateBenchmark {
+
+    private final PlanNode[] nodes = {
+            new ScanNode("table0"),
+            new FilterNode(new ScanNode("lineitem"), null),
+            new ProjectNode(new FilterNode(new ScanNode("orders"), null)),
+            new JoinNode(new ScanNode("orders"), new ScanNode("lineitem")),
+    };
+
+    @Param({"10000"})
+    private int rules;
+
+    private final List<Matcher<? extends PlanNode>> matchers = new ArrayList<>();
+    private final List<String> results = new ArrayList<>();
+    private RuleSet<PlanNode, String> ruleSet;
+    private RuleSet.Rule replacedRule;
+    private int version;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < rules; i++) {
+            matchers.add(matcher(i));
+            results.add("table" + i);
+        }
+        ruleSet = patternMatch(matchers).toRuleSet();
+        replacedRule = ruleSet.getRules().get(rules / 2);
+        matchAll(ruleSet.returnFirst());
+    }
+
+    private static Matcher<? extends PlanNode> matcher(int i) {
+        switch (i % 4) {
+            case 0:
+                return scan().with(tableName().equalTo("table" + i));
+            case 1:
+                return filter().matching(node -> i < 4);
+            case 2:
+                return project().matching(node -> i < 4);
+            default:
+                return join().matching(node -> i < 4);
+        }
+    }
+
+    private PatternMatch<PlanNode, String> patternMatch(List<Matcher<? extends PlanNode>> matchers) {
+        PatternMatch<PlanNode, String> patternMatch = matchFor(PlanNode.class, String.class);
+        for (int i = 0; i < matchers.size(); i++) {
+            String result = results.get(i);
+            patternMatch.caseOf(matchers.get(i)).returns(() -> result);
+        }
+        return patternMatch;
+    }
+
+    @Benchmark
+    public Match<String>[] recompile() {
+        String table = "table" + version++;
+        List<Matcher<? extends PlanNode>> rebuiltMatchers = new ArrayList<>(matchers);
+        rebuiltMatchers.set(rules / 2, scan().with(tableName().equalTo(table)));
+        CompiledPatternMatch<PlanNode, String> compiled = patternMatch(rebuiltMatchers).compile();
+        return matchAll(compiled.returnFirst());
+    }
+
+    @Benchmark
+    public Match<String>[] replaceRule() {
+        String table = "table" + version++;
+        ruleSet.replace(replacedRule, scan().with(tableName().equalTo(table)), () -> table);
+        return matchAll(ruleSet.returnFirst());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Match<String>[] matchAll(Matcher<String> matcher) {
+        Match<String>[] matches = new Match[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            matches[i] = matcher.match(nodes[i]);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,106 @@
+package rocks.matchmaker.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.PatternMatch;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import static rocks.matchmaker.Matcher.typeOf;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Dispatches objects of 8 classes to a case per class, for a pattern match over an open hierarchy,
+ * whose per-class candidates are computed as each class is first matched (the Java 8 path),
+ * and over a sealed one, whose candidates are all computed when the rule set is built (the Java 17 path, see {@link SealedShapes}).
+ * <p>
+ * The sealed hierarchy needs Java 17+ and the Java 17 layer, which the benchmark profile puts on the class path
+ * when the multi-release-17 profile is active.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SealedDispatchBenchmark {
+
+    interface Shape {}
+
+    static final class S0 implements Shape {}
+    static final class S1 implements Shape {}
+    static final class S2 implements Shape {}
+    static final class S3 implements Shape {}
+    static final class S4 implements Shape {}
+    static final class S5 implements Shape {}
+    static final class S6 implements Shape {}
+    static final class S7 implements Shape {}
+
+    private static final int CLASSES = 8;
+
+    @Param({"open", "sealed"})
+    private String hierarchy;
+
+    private Class<Object> shapeType;
+    private final Class<?>[] shapeClasses = new Class<?>[CLASSES];
+    private final Object[] shapes = new Object[CLASSES];
+    private Matcher<Integer> ruleSet;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+        String prefix = hierarchy.equals("sealed") ? SealedDispatchBenchmark.class.getPackage().getName() + ".SealedShapes$" : SealedDispatchBenchmark.class.getName() + "$";
+        shapeType = (Class<Object>) Class.forName(prefix + "Shape");
+        for (int i = 0; i < CLASSES; i++) {
+            shapeClasses[i] = Class.forName(prefix + "S" + i);
+            Constructor<?> constructor = shapeClasses[i].getDeclaredConstructor();
+            constructor.setAccessible(true);
+            shapes[i] = constructor.newInstance();
+        }
+        ruleSet = ruleSet();
+    }
+
+    /**
+     * Matches one object of each class with a rule set built once.
+     */
+    @Benchmark
+    public int match() {
+        return matchAll(ruleSet);
+    }
+
+    /**
+     * Builds the rule set and matches one object of each class, i.e. computes the candidates of each class once.
+     */
+    @Benchmark
+    public int buildAndMatch() {
+        return matchAll(ruleSet());
+    }
+
+    private Matcher<Integer> ruleSet() {
+        PatternMatch<Object, Integer> patternMatch = matchFor(shapeType, Integer.class);
+        for (int i = 0; i < CLASSES; i++) {
+            int result = i;
+            patternMatch.caseOf(typeOf(shapeClasses[i])).returns(() -> result);
+        }
+        return patternMatch.returnFirst();
+    }
+
+    private int matchAll(Matcher<Integer> ruleSet) {
+        int sum = 0;
+        for (Object shape : shapes) {
+            sum += ruleSet.match(shape).value();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,100 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.FilterNode;
+import example.ast.PlanNode;
+import example.ast.ProjectNode;
+import example.ast.ScanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Capture;
+import rocks.matchmaker.Captures;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.Option;
+import rocks.matchmaker.SequenceDetector;
+import rocks.matchmaker.SequencePattern;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static example.ast.Matchers.filter;
+import static example.ast.Matchers.scan;
+import static example.ast.Matchers.source;
+import static rocks.matchmaker.Capture.newCapture;
+
+/**
+ * Detects "a scan followed within a window of events by a filter of a scan of the same table" in a stream of events:
+ * incrementally with a {@link SequenceDetector}, and by matching each filter against every scan of the window before it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequencePatternBenchmark {
+
+    @Param({"16", "256"})
+    private int window;
+
+    private final Capture<ScanNode> scanned = newCapture();
+    private final Matcher<ScanNode> firstElement = scan().capturedAs(scanned);
+    private final Matcher<FilterNode> secondElement = filter().with(source().matching(scan().matching((ScanNode scan, Captures captures) ->
+            Option.of(scan).filter(s -> s.getTableName().equals(captures.get(scanned).getTableName())))));
+
+    private PlanNode[] events;
+    private SequencePattern<PlanNode> pattern;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        events = new PlanNode[4096];
+        for (int i = 0; i < events.length; i++) {
+            String table = PlanGenerator.table(random);
+            switch (random.nextInt(3)) {
+                case 0:
+                    events[i] = new ScanNode(table);
+                    break;
+                case 1:
+                    events[i] = new FilterNode(new ScanNode(table), null);
+                    break;
+                default:
+                    events[i] = new ProjectNode(null);
+            }
+        }
+        pattern = SequencePattern.<PlanNode>sequenceOf().then(firstElement).then(secondElement, window);
+    }
+
+    @Benchmark
+    public int detector() {
+        SequenceDetector<PlanNode> detector = pattern.detector();
+        int detected = 0;
+        for (PlanNode event : events) {
+            detected += detector.accept(event).size();
+        }
+        return detected;
+    }
+
+    @Benchmark
+    public int windowRescan() {
+        int detected = 0;
+        for (int end = 0; end < events.length; end++) {
+            for (int start = Math.max(0, end - window); start < end; start++) {
+                Match<ScanNode> first = firstElement.match(events[start]);
+                if (first.isPresent() && secondElement.match(events[end], first.captures()).isPresent()) {
+                    detected++;
+                }
+            }
+        }
+        return detected;
+    }
+}
@@ -0,0 +1,88 @@
+package rocks.matchmaker.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.PatternMatch;
+import rocks.matchmaker.StringMatchers;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Compares classifying strings by many keyword cases written as {@link StringMatchers}, whose literals are found
+ * in a single scan of each string, with the same cases written as predicates, evaluated one by one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringCasesBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int keywords;
+
+    private String[] strings;
+    private Matcher<List<Integer>> literalCases;
+    private Matcher<List<Integer>> predicateCases;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        strings = new String[64];
+        for (int i = 0; i < strings.length; i++) {
+            StringBuilder string = new StringBuilder();
+            for (int word = 0; word < 20; word++) {
+                string.append(keyword(random.nextInt(2 * keywords))).append(' ');
+            }
+            strings[i] = string.toString();
+        }
+
+        PatternMatch<String, Integer> literalMatch = matchFor(String.class, Integer.class);
+        PatternMatch<String, Integer> predicateMatch = matchFor(String.class, Integer.class);
+        for (int i = 0; i < keywords; i++) {
+            String keyword = keyword(i);
+            int result = i;
+            literalMatch.caseOf(StringMatchers.contains(keyword)).returns(() -> result);
+            predicateMatch.caseOf(s -> s.contains(keyword)).returns(() -> result);
+        }
+        literalCases = literalMatch.returningAll();
+        predicateCases = predicateMatch.returningAll();
+    }
+
+    private static String keyword(int i) {
+        return "keyword" + Integer.toString(i * 7919, 36);
+    }
+
+    @Benchmark
+    public Match<List<Integer>> literalCases() {
+        return literalCases.match(nextString());
+    }
+
+    @Benchmark
+    public Match<List<Integer>> predicateCases() {
+        return predicateCases.match(nextString());
+    }
+
+    private String nextString() {
+        String string = strings[next];
+        next = (next + 1) % strings.length;
+        return string;
+    }
+}
@@ -0,0 +1,116 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.PlanNode;
+import example.ast.ScanNode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.SubtreeDag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches generated plans ({@link PlanGenerator}) for the nodes a generated rule set ({@link RuleCorpus}) matches:
+ * matching every node, and matching every unique subtree once with a {@link SubtreeDag}, built per search or in advance.
+ * <p>
+ * The node and unique subtree counts are reported as auxiliary counters, for the memory the DAG retains
+ * compared to the tree's nodes. Run with {@code -prof gc} for the memory allocated per search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubtreeDagBenchmark {
+
+    @Param({"42"})
+    private long seed;
+
+    @Param({"100"})
+    private int rules;
+
+    @Param({"4", "16"})
+    private int exchangeWidth;
+
+    private final List<PlanNode> plans = new ArrayList<>();
+    private final List<SubtreeDag<PlanNode>> dags = new ArrayList<>();
+    private Matcher<Integer> first;
+    private int nextPlan;
+
+    @Setup
+    public void setUp() {
+        PlanGenerator generator = new PlanGenerator(seed, 8, exchangeWidth, 3);
+        for (int i = 0; i < 16; i++) {
+            PlanNode plan = generator.next();
+            plans.add(plan);
+            dags.add(dag(plan));
+        }
+        first = RuleCorpus.generate(seed, rules, 0.5, 4).compile().returnFirst();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long nodes;
+        public long uniqueSubtrees;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+            uniqueSubtrees = 0;
+        }
+    }
+
+    @Benchmark
+    public List<Integer> everyNode() {
+        List<Integer> results = new ArrayList<>();
+        for (PlanNode node : PlanGenerator.nodes(nextPlan())) {
+            Match<Integer> match = first.match(node);
+            if (match.isPresent()) {
+                results.add(match.value());
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<Integer> uniqueSubtrees(Sizes sizes) {
+        SubtreeDag<PlanNode> dag = dag(nextPlan());
+        sizes.nodes += dag.getNodeCount();
+        sizes.uniqueSubtrees += dag.getUniqueSubtreeCount();
+        return dag.findAll(first);
+    }
+
+    @Benchmark
+    public List<Integer> uniqueSubtreesOfBuiltDags() {
+        SubtreeDag<PlanNode> dag = dags.get(nextPlan);
+        nextPlan();
+        return dag.findAll(first);
+    }
+
+    private PlanNode nextPlan() {
+        PlanNode plan = plans.get(nextPlan);
+        nextPlan = (nextPlan + 1) % plans.size();
+        return plan;
+    }
+
+    private static SubtreeDag<PlanNode> dag(PlanNode plan) {
+        return SubtreeDag.of(plan, PlanNode::getSources, node -> node instanceof ScanNode ? ((ScanNode) node).getTableName() : null);
+    }
+}
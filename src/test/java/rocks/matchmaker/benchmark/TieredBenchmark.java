@@ -0,0 +1,128 @@
+package rocks.matchmaker.benchmark;
+
+import example.ast.PlanNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Match;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.PatternMatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches the nodes of generated plans ({@link PlanGenerator}) against generated rule sets ({@link RuleCorpus}),
+ * with interpreted cases and with tiered ones (see {@link PatternMatch#withTiering(int, java.util.concurrent.Executor)}),
+ * promoted by a background thread once evaluated often enough. The promotions happen during the warmup.
+ * The {@code Matching} benchmarks only match the nodes some rule matches, so that they measure the matching path alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TieredBenchmark {
+
+    @Param({"42"})
+    private long seed;
+
+    @Param({"1000", "10000"})
+    private int rules;
+
+    @Param({"1000"})
+    private int threshold;
+
+    private final List<PlanNode> nodes = new ArrayList<>();
+    private final List<PlanNode> matchingNodes = new ArrayList<>();
+    private ExecutorService promotions;
+    private Matcher<Integer> interpretedFirst;
+    private Matcher<List<Integer>> interpretedAll;
+    private Matcher<Integer> tieredFirst;
+    private Matcher<List<Integer>> tieredAll;
+
+    @Setup
+    public void setUp() {
+        PlanGenerator generator = new PlanGenerator(seed, 8, 16, 3);
+        for (int i = 0; i < 4; i++) {
+            nodes.addAll(PlanGenerator.nodes(generator.next()));
+        }
+        promotions = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "promotions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        interpretedFirst = RuleCorpus.generate(seed, rules, 0.5, 4).returnFirst();
+        interpretedAll = RuleCorpus.generate(seed, rules, 0.5, 4).returningAll();
+        tieredFirst = RuleCorpus.generate(seed, rules, 0.5, 4).withTiering(threshold, promotions).returnFirst();
+        tieredAll = RuleCorpus.generate(seed, rules, 0.5, 4).withTiering(threshold, promotions).returningAll();
+        for (PlanNode node : nodes) {
+            if (interpretedFirst.match(node).isPresent()) {
+                matchingNodes.add(node);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        promotions.shutdownNow();
+    }
+
+    @Benchmark
+    public int interpretedReturnFirst() {
+        return matches(interpretedFirst);
+    }
+
+    @Benchmark
+    public int tieredReturnFirst() {
+        return matches(tieredFirst);
+    }
+
+    @Benchmark
+    public int interpretedReturningAll() {
+        return matches(interpretedAll);
+    }
+
+    @Benchmark
+    public int tieredReturningAll() {
+        return matches(tieredAll);
+    }
+
+    @Benchmark
+    public int interpretedMatching() {
+        return matches(interpretedFirst, matchingNodes);
+    }
+
+    @Benchmark
+    public int tieredMatching() {
+        return matches(tieredFirst, matchingNodes);
+    }
+
+    private int matches(Matcher<?> matcher) {
+        return matches(matcher, nodes);
+    }
+
+    private int matches(Matcher<?> matcher, List<PlanNode> nodes) {
+        int matches = 0;
+        for (PlanNode node : nodes) {
+            Match<?> match = matcher.match(node);
+            if (match.isPresent()) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
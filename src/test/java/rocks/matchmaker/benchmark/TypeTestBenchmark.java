@@ -0,0 +1,122 @@
+package rocks.matchmaker.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.matchmaker.Matcher;
+import rocks.matchmaker.InstanceOfMatchers;
+
+import java.util.concurrent.TimeUnit;
+
+import static rocks.matchmaker.Matcher.typeOf;
+
+/**
+ * Tests objects of 20 classes against 8 interfaces they implement in various combinations:
+ * with {@link Matcher#typeOf(Class)}, which caches interface tests, and with single-step matchers of the same shape
+ * testing {@link Class#isInstance(Object)} ({@link InstanceOfMatchers}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeTestBenchmark {
+
+    interface Node {}
+    interface Leaf extends Node {}
+    interface Unary extends Node {}
+    interface Binary extends Node {}
+    interface Relational {}
+    interface Scalar {}
+    interface Deterministic {}
+    interface Partitioned {}
+
+    static class N0 implements Leaf, Relational {}
+    static class N1 implements Leaf, Scalar {}
+    static class N2 implements Leaf, Relational, Deterministic {}
+    static class N3 implements Leaf, Scalar, Deterministic {}
+    static class N4 implements Leaf, Relational, Partitioned {}
+    static class N5 implements Unary, Relational {}
+    static class N6 implements Unary, Scalar {}
+    static class N7 implements Unary, Relational, Deterministic {}
+    static class N8 implements Unary, Scalar, Deterministic {}
+    static class N9 implements Unary, Relational, Partitioned {}
+    static class N10 implements Unary, Relational, Deterministic, Partitioned {}
+    static class N11 implements Binary, Relational {}
+    static class N12 implements Binary, Scalar {}
+    static class N13 implements Binary, Relational, Deterministic {}
+    static class N14 implements Binary, Scalar, Deterministic {}
+    static class N15 implements Binary, Relational, Partitioned {}
+    static class N16 implements Binary, Relational, Deterministic, Partitioned {}
+    static class N17 implements Node, Deterministic {}
+    static class N18 implements Node, Partitioned {}
+    static class N19 implements Node {}
+
+    private static final Class<?>[] INTERFACES = {
+            Node.class, Leaf.class, Unary.class, Binary.class, Relational.class, Scalar.class, Deterministic.class, Partitioned.class
+    };
+
+    private final Object[] objects = {
+            new N0(), new N1(), new N2(), new N3(), new N4(), new N5(), new N6(), new N7(), new N8(), new N9(),
+            new N10(), new N11(), new N12(), new N13(), new N14(), new N15(), new N16(), new N17(), new N18(), new N19(),
+    };
+
+    private Matcher<?>[] typeTests;
+    private Matcher<?>[] isInstanceTests;
+
+    @Setup
+    public void setUp() {
+        typeTests = new Matcher<?>[INTERFACES.length];
+        isInstanceTests = new Matcher<?>[INTERFACES.length];
+        for (int i = 0; i < INTERFACES.length; i++) {
+            Class<?> type = INTERFACES[i];
+            typeTests[i] = typeOf(type);
+            isInstanceTests[i] = InstanceOfMatchers.isInstance(type);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int cachedTypeTests() {
+        return matches(typeTests);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int isInstanceTests() {
+        return matches(isInstanceTests);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int cachedTypeTestsAllCpus() {
+        return matches(typeTests);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int isInstanceTestsAllCpus() {
+        return matches(isInstanceTests);
+    }
+
+    private int matches(Matcher<?>[] tests) {
+        int matches = 0;
+        for (Object object : objects) {
+            for (Matcher<?> test : tests) {
+                if (test.match(object).isPresent()) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,50 @@
+package rocks.matchmaker;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static rocks.matchmaker.Matcher.typeOf;
+
+/**
+ * Tests the Java 11 layer (src/main/java11), run against its classes by the multi-release profile.
+ */
+class MatchEventsTest {
+
+    @Test
+    void match_events_are_recorded() throws IOException {
+        Matcher<String> matcher = typeOf(String.class).matching(s -> s.startsWith("a"));
+
+        List<RecordedEvent> events;
+        Path file = Files.createTempFile("match-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("rocks.matchmaker.Match").withThreshold(Duration.ZERO);
+            recording.start();
+            matcher.match("abc");
+            matcher.match("xyz");
+            matcher.match(42);
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        List<String> outcomes = events.stream()
+                .filter(event -> event.getEventType().getName().equals("rocks.matchmaker.Match"))
+                .sorted(comparing(RecordedEvent::getStartTime))
+                .map(event -> event.getString("outcome"))
+                .collect(toList());
+        assertEquals(List.of("MATCH", "NO_MATCH", "NO_MATCH"), outcomes);
+    }
+}
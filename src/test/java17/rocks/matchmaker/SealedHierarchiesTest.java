@@ -0,0 +1,68 @@
+package rocks.matchmaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static rocks.matchmaker.Matcher.typeOf;
+import static rocks.matchmaker.PatternMatch.matchFor;
+
+/**
+ * Tests the Java 17 layer (src/main/java17), run against its classes by the multi-release-17 profile.
+ */
+class SealedHierarchiesTest {
+
+    sealed interface Expression permits Constant, Negation, Sum, Call {}
+
+    record Constant(int value) implements Expression {}
+
+    record Negation(Expression operand) implements Expression {}
+
+    record Sum(Expression left, Expression right) implements Expression {}
+
+    static sealed abstract class Call implements Expression permits BuiltinCall, UserCall {}
+
+    static final class BuiltinCall extends Call {}
+
+    static final class UserCall extends Call {}
+
+    sealed interface Statement permits Return, Block {}
+
+    record Return(Expression value) implements Statement {}
+
+    static non-sealed class Block implements Statement {}
+
+    @Test
+    void sealed_hierarchies_are_closed() {
+        assertEquals(
+                Set.of(Constant.class, Negation.class, Sum.class, BuiltinCall.class, UserCall.class),
+                SealedHierarchies.leafClasses(Expression.class));
+        assertEquals(List.of(BuiltinCall.class, UserCall.class), List.copyOf(SealedHierarchies.leafClasses(Call.class)));
+        //non-sealed subclasses open the hierarchy up
+        assertNull(SealedHierarchies.leafClasses(Statement.class));
+    }
+
+    @Test
+    void exhaustive_pattern_matching_over_sealed_hierarchies() {
+        Matcher<String> ruleSet = matchFor(Expression.class, String.class).exhaustive()
+                .caseOf(typeOf(Constant.class)).returns(constant -> Integer.toString(((Constant) constant).value()))
+                .caseOf(typeOf(Negation.class)).returns(() -> "negation")
+                .caseOf(typeOf(Sum.class)).returns(() -> "sum")
+                .caseOf(typeOf(Call.class)).returns(() -> "call")
+                .returnFirst();
+        assertEquals("42", ruleSet.match(new Constant(42)).value());
+        assertEquals("sum", ruleSet.match(new Sum(new Constant(1), new Constant(2))).value());
+        assertEquals("call", ruleSet.match(new UserCall()).value());
+
+        Throwable uncovered = assertThrows(IllegalStateException.class, () -> matchFor(Expression.class, String.class).exhaustive()
+                .caseOf(typeOf(Constant.class)).returns(() -> "constant")
+                .caseOf(typeOf(Negation.class)).returns(() -> "negation")
+                .caseOf(typeOf(BuiltinCall.class)).returns(() -> "builtin call")
+                .returnFirst());
+        assertEquals("No case applies to " + Sum.class.getName() + ", " + UserCall.class.getName(), uncovered.getMessage());
+    }
+}
@@ -0,0 +1,21 @@
+package rocks.matchmaker.benchmark;
+
+/**
+ * The sealed counterpart of {@link SealedDispatchBenchmark}'s open hierarchy, loaded by name,
+ * since the benchmarks are compiled for Java 8.
+ */
+final class SealedShapes {
+
+    private SealedShapes() {}
+
+    sealed interface Shape permits S0, S1, S2, S3, S4, S5, S6, S7 {}
+
+    record S0() implements Shape {}
+    record S1() implements Shape {}
+    record S2() implements Shape {}
+    record S3() implements Shape {}
+    record S4() implements Shape {}
+    record S5() implements Shape {}
+    record S6() implements Shape {}
+    record S7() implements Shape {}
+}